@@ -0,0 +1,209 @@
+package com.bbbtech.barcodescan;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands recognized barcodes to another {@link BarcodeRecognizer} on an executor, so that a slow
+ * recognizer, e.g. one doing database lookups or UI work, never holds up detection.  Pass it to
+ * {@link BarcodeTracker} in place of the recognizer it wraps.
+ * <p/>
+ * {@link #onRecognized(Barcode)} never waits: it queues the barcode and schedules a drain task on
+ * the executor if none is running.  The recognizer gets the barcodes one at a time and in order.
+ * Barcodes arriving while the queue is full are handled by the {@link OverflowPolicy}.
+ */
+public final class AsyncBarcodeRecognizer implements BarcodeRecognizer, Closeable {
+
+    private static final String TAG = "AsyncBarcodeRecognizer";
+
+    /**
+     * What happens to a new barcode while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** The new barcode is dropped. */
+        DROP_NEWEST,
+        /** The barcode waiting longest is dropped to make room for the new one. */
+        DROP_OLDEST
+    }
+
+    private final BarcodeRecognizer mRecognizer;
+    private final OverflowPolicy mPolicy;
+    private final int mQueueCapacity;
+    private final Executor mExecutor;
+    private final boolean mOwnsExecutor;
+
+    // Guarded by this.
+    private final ArrayDeque<Barcode> mQueue = new ArrayDeque<>();
+    private boolean mDraining;
+    private boolean mClosed;
+    private long mDroppedCount;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private AsyncBarcodeRecognizer(Builder builder) {
+        mRecognizer = builder.mRecognizer;
+        mPolicy = builder.mPolicy;
+        mQueueCapacity = builder.mQueueCapacity;
+        if (builder.mExecutor != null) {
+            mExecutor = builder.mExecutor;
+            mOwnsExecutor = false;
+        } else {
+            mExecutor = Executors.newSingleThreadExecutor();
+            mOwnsExecutor = true;
+        }
+    }
+
+    @Override
+    public void onRecognized(Barcode item) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            if (mQueue.size() >= mQueueCapacity) {
+                mDroppedCount++;
+                if (mPolicy == OverflowPolicy.DROP_NEWEST) {
+                    return;
+                }
+                mQueue.poll();
+            }
+            mQueue.add(item);
+            if (mDraining) {
+                return;
+            }
+            mDraining = true;
+        }
+
+        try {
+            mExecutor.execute(mDrain);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Recognizer executor rejected the barcode.", e);
+            synchronized (this) {
+                mDraining = false;
+                mDroppedCount += mQueue.size();
+                mQueue.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of barcodes dropped because the queue was full.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Stops handing barcodes to the recognizer and drops those still waiting.  An executor of
+     * the recognizer's own is shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            mQueue.clear();
+        }
+        if (mOwnsExecutor) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Barcode barcode;
+            synchronized (this) {
+                barcode = mQueue.poll();
+                if (barcode == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+
+            try {
+                mRecognizer.onRecognized(barcode);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception thrown from barcode recognizer.", e);
+            }
+        }
+    }
+
+    /**
+     * Builder for an asynchronous recognizer.  By default barcodes go to the recognizer on a
+     * single thread of its own, through a queue of 16 dropping the newest barcode when full.
+     */
+    public static class Builder {
+        private final BarcodeRecognizer mRecognizer;
+        private OverflowPolicy mPolicy = OverflowPolicy.DROP_NEWEST;
+        private int mQueueCapacity = 16;
+        private Executor mExecutor;
+
+        public Builder(BarcodeRecognizer recognizer) {
+            if (recognizer == null) {
+                throw new IllegalArgumentException("No recognizer supplied.");
+            }
+            mRecognizer = recognizer;
+        }
+
+        public Builder setOverflowPolicy(OverflowPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("Policy must not be null.");
+            }
+            mPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the number of barcodes that may wait for the recognizer.  Default: 16.
+         */
+        public Builder setQueueCapacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+            }
+            mQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets the executor running the recognizer.  It isn't shut down by
+         * {@link AsyncBarcodeRecognizer#close()}.
+         */
+        public Builder setExecutor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Runs the recognizer on the main thread, e.g. to update the UI.
+         */
+        public Builder setMainThread() {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    if (!handler.post(command)) {
+                        throw new RejectedExecutionException("Main looper is exiting.");
+                    }
+                }
+            };
+            return this;
+        }
+
+        public AsyncBarcodeRecognizer build() {
+            return new AsyncBarcodeRecognizer(this);
+        }
+    }
+}
@@ -18,12 +18,13 @@ package com.bbbtech.barcodescan;
 
 import android.hardware.Camera;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
 /**
- * This should be created and used from the camera thread only. The thread message queue is used
- * to run all operations on the same thread.
+ * This should be created and used from the camera thread only. The message queue of the supplied
+ * looper is used to run all operations on the same thread.
  */
 final class AutoFocusManager {
 
@@ -55,7 +56,7 @@ final class AutoFocusManager {
     };
 
     @SuppressWarnings("deprecation")
-    AutoFocusManager(Camera camera) {
+    AutoFocusManager(Camera camera, Looper looper) {
         Handler.Callback focusHandlerCallback = new Handler.Callback() {
             @Override
             public boolean handleMessage(Message msg) {
@@ -66,7 +67,7 @@ final class AutoFocusManager {
                 return false;
             }
         };
-        this.handler = new Handler(focusHandlerCallback);
+        this.handler = new Handler(looper, focusHandlerCallback);
         this.camera = camera;
         useAutoFocus = true;
         start();
@@ -81,12 +82,12 @@ final class AutoFocusManager {
     /**
      * Start auto-focus. The first focus will happen now, then repeated every two seconds.
      */
-    private void start() {
+    private synchronized void start() {
         stopped = false;
         focus();
     }
 
-    private void focus() {
+    private synchronized void focus() {
         if (useAutoFocus) {
             if (!stopped && !focusing) {
                 try {
@@ -109,7 +110,7 @@ final class AutoFocusManager {
     /**
      * Stop auto-focus.
      */
-    void stop() {
+    synchronized void stop() {
         stopped = true;
         focusing = false;
         cancelOutstandingTask();
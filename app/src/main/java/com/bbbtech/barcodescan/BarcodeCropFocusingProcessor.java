@@ -1,9 +1,10 @@
 package com.bbbtech.barcodescan;
 
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.util.SparseArray;
 
+import com.bbbtech.barcodescan.frame.FocusSelector;
+import com.bbbtech.barcodescan.frame.FrameGeometry;
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.FocusingProcessor;
@@ -36,6 +37,8 @@ import com.google.android.gms.vision.barcode.Barcode;
  *          mPreview.getLocalVisibleRect(visibleRect);
  *
  *          focusingProcessor.setPreviewRect(visibleRect, mPreview.getPaddingLeft(), mPreview.getPaddingTop());
+ *          // CameraSource.Builder.setProcessor(focusingProcessor) 로 생성한 경우 Crop 영역만 디텍터에 전달
+ *          cameraSource.setScanWindow(focusingProcessor.getCropFrameRect(), visibleRect.width(), visibleRect.height());
  *          return true;
  *      }
  *  });
@@ -50,6 +53,14 @@ public class BarcodeCropFocusingProcessor extends FocusingProcessor<Barcode> {
     private float widthScaleFactor = 1;
     private float heightScaleFactor = 1;
 
+    private FrameStats frameStats;      // null이면 측정하지 않음
+    private long selectFocusNanos;      // 마지막 selectFocus() 소요 시간
+
+    // selectFocus()에서 재사용하는 버퍼
+    private int[] candidateIds = new int[4];
+    private int[] candidateBoxes = new int[16];
+    private final int[] cropFrame = new int[4];
+
     public BarcodeCropFocusingProcessor(Detector<Barcode> detector, Tracker<Barcode> tracker) {
         super(detector, tracker);
     }
@@ -72,6 +83,22 @@ public class BarcodeCropFocusingProcessor extends FocusingProcessor<Barcode> {
         }
     }
 
+    /**
+     * Records the selectFocus() and tracker dispatch latencies into the supplied stats, usually
+     * {@link CameraSource#getFrameStats()}.  Pass null to stop recording.
+     */
+    public void setFrameStats(FrameStats frameStats) {
+        this.frameStats = frameStats;
+    }
+
+    /**
+     * Returns the crop frame in view coordinates, or null until both the camera source size and
+     * the preview rect are known.
+     */
+    public Rect getCropFrameRect() {
+        return cropFrameRect;
+    }
+
     private void calculateCropFrameRect() {
         int cropFrameWidth = previewRect.right - (paddingHorizontal * 2);
         int cropFrameHeight = previewRect.bottom - (paddingVertical * 2);
@@ -86,80 +113,61 @@ public class BarcodeCropFocusingProcessor extends FocusingProcessor<Barcode> {
     }
 
     @Override
-    public int selectFocus(Detector.Detections<Barcode> detections) {
-        SparseArray<Barcode> barcodes = detections.getDetectedItems();
-        int detectedId = -1;
-
-        for (int i = 0; i < barcodes.size(); ++i) {
-            int id = barcodes.keyAt(i);
-
-            Barcode barcode = barcodes.get(id);
-
-            // 정상적인 상황에서 바코드가 측정 되었을 때, Crop 영역 외의 바코드는 무시하는 코드
-            if (barcode != null && cropFrameRect != null) {
-                RectF barcodeRectF = getTranslatedRect(barcode.getBoundingBox());
-
-                // 일반적 상황: 여러 개의 바코드 중 cropRect 안에 들어오는 바코드가 존재할 경우
-                Rect barcodeRect = new Rect();
-                barcodeRectF.roundOut(barcodeRect);
-                if (cropFrameRect.contains(barcodeRect)) {
-                    detectedId = id;
-                }
-                // 특수상황: 두 개 이상의 똑같은 바코드가 세로로 있는 상태에서 잡힐 때 Rect가 두 바코드가 붙은 상태로 나오는 상황을 캐치
-                else if (barcodeRect.height() > cropFrameRect.height() &&
-                        barcodeRect.left > cropFrameRect.left && barcodeRect.right < cropFrameRect.right) {
-                    detectedId = id;
-                }
-            }
+    public void receiveDetections(Detector.Detections<Barcode> detections) {
+        FrameStats stats = frameStats;
+        if (stats == null) {
+            super.receiveDetections(detections);
+            return;
         }
-        return detectedId;
-    }
-
-    private RectF getTranslatedRect(Rect rect) {
-        RectF rectF = new RectF(rect);
-
-        rectF.left = translateX(rectF.left);
-        rectF.top = translateY(rectF.top);
-        rectF.right = translateX(rectF.right);
-        rectF.bottom = translateY(rectF.bottom);
 
-        return rectF;
+        // 트래커 전달 시간은 전체 시간에서 selectFocus() 시간을 뺀 값
+        selectFocusNanos = 0;
+        long startNanos = System.nanoTime();
+        super.receiveDetections(detections);
+        long totalNanos = System.nanoTime() - startNanos;
+        stats.record(FrameStats.Stage.SELECT_FOCUS, selectFocusNanos);
+        stats.record(FrameStats.Stage.TRACKER_DISPATCH, totalNanos - selectFocusNanos);
     }
 
-    // 이하 구글 비전 라이브러리에서 가져온 메서드들
-    /**
-     * Adjusts a horizontal value of the supplied value from the preview scale to the view
-     * scale.
-     */
-    private float scaleX(float horizontal) {
-        return horizontal * widthScaleFactor;
+    @Override
+    public int selectFocus(Detector.Detections<Barcode> detections) {
+        long startNanos = System.nanoTime();
+        int detectedId = findFocus(detections);
+        selectFocusNanos = System.nanoTime() - startNanos;
+        return detectedId;
     }
 
-    /**
-     * Adjusts a vertical value of the supplied value from the preview scale to the view scale.
-     */
-    private float scaleY(float vertical) {
-        return vertical * heightScaleFactor;
-    }
+    private int findFocus(Detector.Detections<Barcode> detections) {
+        if (cropFrameRect == null) {
+            return -1;
+        }
 
-    /**
-     * Adjusts the x coordinate from the preview's coordinate system to the view coordinate
-     * system.
-     */
-    private float translateX(float x) {
-        // 중앙에서 스캔을 하는 것이라 우선 불필요하다고 판단
-//        if (mOverlay.mFacing == CameraSource.CAMERA_FACING_FRONT) {
-//            return mOverlay.getWidth() - scaleX(x); // 대칭 -x + 2a (a = 대칭 선이 되는 x절편 좌표 값, a가 중앙값이니 * 2 해서 getWidth())
-//        } else {
-        return scaleX(x);
-//        }
-    }
+        SparseArray<Barcode> barcodes = detections.getDetectedItems();
+        if (candidateIds.length < barcodes.size()) {
+            candidateIds = new int[barcodes.size()];
+            candidateBoxes = new int[barcodes.size() * 4];
+        }
+        int count = 0;
+        for (int i = 0; i < barcodes.size(); ++i) {
+            Barcode barcode = barcodes.valueAt(i);
+            if (barcode == null) {
+                continue;
+            }
+            Rect box = barcode.getBoundingBox();
+            candidateBoxes[count * 4] = box.left;
+            candidateBoxes[count * 4 + 1] = box.top;
+            candidateBoxes[count * 4 + 2] = box.right;
+            candidateBoxes[count * 4 + 3] = box.bottom;
+            candidateIds[count++] = barcodes.keyAt(i);
+        }
 
-    /**
-     * Adjusts the y coordinate from the preview's coordinate system to the view coordinate
-     * system.
-     */
-    private float translateY(float y) {
-        return scaleY(y);
+        // Crop 영역 안의 바코드, 또는 세로로 붙어서 하나로 잡힌 바코드를 선택 (FocusSelector 참고)
+        cropFrame[FrameGeometry.LEFT] = cropFrameRect.left;
+        cropFrame[FrameGeometry.TOP] = cropFrameRect.top;
+        cropFrame[FrameGeometry.RIGHT] = cropFrameRect.right;
+        cropFrame[FrameGeometry.BOTTOM] = cropFrameRect.bottom;
+        int selected = FocusSelector.select(candidateBoxes, count,
+                widthScaleFactor, heightScaleFactor, cropFrame);
+        return (selected >= 0) ? candidateIds[selected] : -1;
     }
 }
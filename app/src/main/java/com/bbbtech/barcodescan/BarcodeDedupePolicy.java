@@ -0,0 +1,52 @@
+package com.bbbtech.barcodescan;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Decides how long a recognized barcode keeps a new read of the same format and raw value from
+ * reaching the {@link BarcodeRecognizer}, see {@link BarcodeTracker#setDedupePolicy}.
+ * <p/>
+ * Subclass it to give each value a time of its own, e.g. to suppress product codes for the
+ * whole session but let URLs through again after a few seconds.
+ */
+public abstract class BarcodeDedupePolicy {
+
+    /**
+     * Time to live of a value that is suppressed until the tracker's dedupe cache is cleared.
+     */
+    public static final long FOREVER = Long.MAX_VALUE;
+
+    /**
+     * Returns how long, in milliseconds, reads of the same value are suppressed after the given
+     * barcode was recognized: {@link #FOREVER}, or 0 or less not to suppress them at all.
+     */
+    public abstract long getTtlMillis(Barcode barcode);
+
+    /**
+     * Returns a policy delivering each value only once per session, i.e. until
+     * {@link BarcodeTracker#clearDedupe()} is called or the value is evicted from a full cache.
+     */
+    public static BarcodeDedupePolicy perSession() {
+        return new BarcodeDedupePolicy() {
+            @Override
+            public long getTtlMillis(Barcode barcode) {
+                return FOREVER;
+            }
+        };
+    }
+
+    /**
+     * Returns a policy suppressing reads of a value for the given time after it was recognized.
+     */
+    public static BarcodeDedupePolicy timeWindow(final long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Invalid dedupe window: " + windowMillis);
+        }
+        return new BarcodeDedupePolicy() {
+            @Override
+            public long getTtlMillis(Barcode barcode) {
+                return windowMillis;
+            }
+        };
+    }
+}
@@ -16,8 +16,9 @@
 package com.bbbtech.barcodescan;
 
 import android.content.Context;
-import android.media.MediaPlayer;
+import android.os.SystemClock;
 
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 
@@ -28,31 +29,176 @@ import com.google.android.gms.vision.barcode.Barcode;
  * goes away.
  */
 public class BarcodeTracker extends Tracker<Barcode> {
+    /**
+     * Default number of recognized values kept by {@link #setDedupePolicy(BarcodeDedupePolicy)}.
+     */
+    public static final int DEFAULT_DEDUPE_CAPACITY = 256;
+
+    /**
+     * Formats accepted from a single read by {@link #setConsensus(int, int)}: the two
+     * dimensional formats, whose Reed-Solomon error correction makes a misread very unlikely.
+     */
+    public static final int DEFAULT_SINGLE_READ_FORMATS =
+            Barcode.QR_CODE | Barcode.DATA_MATRIX | Barcode.PDF417 | Barcode.AZTEC;
+
     private BarcodeRecognizer mBarcodeRecognizer;
-    private Context mContext;
-    private boolean mBeepEnabled;
+    private ScanFeedback mFeedback;
+    private FrameStats mFrameStats;
+
+    private volatile BarcodeDedupePolicy mDedupePolicy;
+    private volatile RecognitionDedupeCache mDedupeCache;
+
+    private volatile ConsensusFilter mConsensusFilter;
+    // Whether the current item was delivered yet, when waiting for consensus.
+    private boolean mItemAccepted;
 
     public BarcodeTracker(BarcodeRecognizer barcodeRecognizer) {
         mBarcodeRecognizer = barcodeRecognizer;
     }
 
     public BarcodeTracker(Context context, BarcodeRecognizer barcodeRecognizer, boolean beepEnabled) {
-        mContext = context;
         mBarcodeRecognizer = barcodeRecognizer;
-        mBeepEnabled = beepEnabled;
+        if (context != null && beepEnabled) {
+            mFeedback = ScanFeedback.getDefaultBeep(context);
+        }
+    }
+
+    /**
+     * Plays the supplied feedback, e.g. a beep and a vibration, whenever a barcode is recognized.
+     * The feedback is played asynchronously and isn't released by the tracker.
+     */
+    public BarcodeTracker(BarcodeRecognizer barcodeRecognizer, ScanFeedback feedback) {
+        mBarcodeRecognizer = barcodeRecognizer;
+        mFeedback = feedback;
+    }
+
+    /**
+     * Records the recognizer latency into the supplied stats, usually
+     * {@link CameraSource#getFrameStats()}.  Pass null to stop recording.
+     */
+    public void setFrameStats(FrameStats frameStats) {
+        mFrameStats = frameStats;
+    }
+
+    /**
+     * Keeps a barcode whose format and raw value were recognized before from reaching the
+     * recognizer, or the beep, again for as long as the policy says, e.g. when it briefly left
+     * the frame and came back with a new id.  Pass null to deliver every new item.  Default:
+     * null.
+     */
+    public void setDedupePolicy(BarcodeDedupePolicy policy) {
+        setDedupePolicy(policy, DEFAULT_DEDUPE_CAPACITY);
+    }
+
+    /**
+     * Like {@link #setDedupePolicy(BarcodeDedupePolicy)}, remembering at most the given number of
+     * values; the least recently seen value is forgotten first.
+     */
+    public void setDedupePolicy(BarcodeDedupePolicy policy, int capacity) {
+        mDedupeCache = (policy != null) ? new RecognitionDedupeCache(capacity) : null;
+        mDedupePolicy = policy;
+    }
+
+    /**
+     * Forgets the values recognized so far, and the reads counted towards consensus, e.g. to
+     * start a new scanning session.
+     */
+    public void clearDedupe() {
+        RecognitionDedupeCache cache = mDedupeCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        ConsensusFilter filter = mConsensusFilter;
+        if (filter != null) {
+            filter.clear();
+        }
+    }
+
+    /**
+     * Only recognizes a barcode once its value was read in the given number of frames out of the
+     * latest window of frames, so that a single misread, more likely at a low preview resolution
+     * or a short exposure, is never recognized.  Two dimensional formats are still recognized
+     * from a single read, see {@link #DEFAULT_SINGLE_READ_FORMATS}.  Pass 1 vote to recognize
+     * every barcode from its first read.  Default: 1 vote.
+     *
+     * @param votes        the number of frames the value must be read in
+     * @param windowFrames the number of latest frames counted, at most 64
+     */
+    public void setConsensus(int votes, int windowFrames) {
+        setConsensus(votes, windowFrames, DEFAULT_SINGLE_READ_FORMATS);
     }
 
     /**
-     * Start tracking the detected item instance within the item overlay.
+     * Like {@link #setConsensus(int, int)}, recognizing the given formats from a single read.
+     *
+     * @param singleReadFormats a combination of the {@link Barcode} format flags, or 0 to
+     *                          require consensus for all formats
+     */
+    public void setConsensus(int votes, int windowFrames, int singleReadFormats) {
+        ConsensusFilter filter = new ConsensusFilter(votes, windowFrames, singleReadFormats);
+        mConsensusFilter = (votes > 1) ? filter : null;
+    }
+
+    /**
+     * Start tracking the detected item instance within the item overlay.  With consensus, the
+     * item is only recognized by {@link #onUpdate}, which follows for the same frame.
      */
     @Override
     public void onNewItem(int id, Barcode item) {
+        mItemAccepted = false;
+        if (mConsensusFilter == null) {
+            mItemAccepted = true;
+            recognize(item);
+        }
+    }
+
+    /**
+     * Counts a read of the tracked item towards consensus, and recognizes it once reached.
+     */
+    @Override
+    public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+        ConsensusFilter filter = mConsensusFilter;
+        if (mItemAccepted || filter == null) {
+            return;
+        }
+        if (filter.vote(item, detections.getFrameMetadata().getId())) {
+            mItemAccepted = true;
+            recognize(item);
+        }
+    }
+
+    /**
+     * The tracked item left for good, so a later item starts over waiting for consensus.
+     */
+    @Override
+    public void onDone() {
+        mItemAccepted = false;
+    }
+
+    private void recognize(Barcode item) {
         if (mBarcodeRecognizer != null) {
-            if (mContext != null && mBeepEnabled) {
-                MediaPlayer mediaPlayer = MediaPlayer.create(mContext, R.raw.barcode_beep);
-                mediaPlayer.start();
+            if (isDuplicate(item)) {
+                return;
             }
+            if (mFeedback != null) {
+                mFeedback.play();
+            }
+            FrameStats stats = mFrameStats;
+            long startNanos = System.nanoTime();
             mBarcodeRecognizer.onRecognized(item);
+            if (stats != null) {
+                stats.recordSince(FrameStats.Stage.RECOGNIZER, startNanos);
+            }
+        }
+    }
+
+    private boolean isDuplicate(Barcode item) {
+        BarcodeDedupePolicy policy = mDedupePolicy;
+        RecognitionDedupeCache cache = mDedupeCache;
+        if (policy == null || cache == null) {
+            return false;
         }
+        return cache.checkAndRecord(item, SystemClock.elapsedRealtime(),
+                policy.getTtlMillis(item));
     }
 }
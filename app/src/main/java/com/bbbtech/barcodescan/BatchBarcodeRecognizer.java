@@ -0,0 +1,222 @@
+package com.bbbtech.barcodescan;
+
+import android.util.Log;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizer for batch scanning, e.g. inventory counts, which collects the barcodes recognized
+ * by a {@link BarcodeTracker} and hands them to a {@link BatchListener} in batches, so that an app
+ * can write them to its backend in bulk instead of once per barcode.
+ * <p/>
+ * A barcode only goes into a batch once per format and raw value; use
+ * {@link BarcodeTracker#setDedupePolicy} as well to keep it out of later batches.  A batch is
+ * flushed once it holds the maximum number of barcodes, or once the flush interval has passed
+ * since its first barcode, whichever comes first.  Batches are delivered in order on a thread of
+ * the recognizer, never on the detection thread.  The flush thread is a daemon thread, so a
+ * recognizer that is never closed doesn't keep the JVM from exiting.
+ */
+public final class BatchBarcodeRecognizer implements BarcodeRecognizer, Closeable {
+
+    private static final String TAG = "BatchBarcodeRecognizer";
+
+    /**
+     * Receives the batches, on the flush thread of the recognizer.
+     */
+    public interface BatchListener {
+        /**
+         * @param batch the barcodes in order of recognition, never empty
+         */
+        void onBatch(List<ScannedBarcode> batch);
+    }
+
+    /**
+     * A barcode of a batch, with the time it was recognized.
+     */
+    public static final class ScannedBarcode {
+        private final Barcode mBarcode;
+        private final long mTimestampMillis;
+
+        ScannedBarcode(Barcode barcode, long timestampMillis) {
+            mBarcode = barcode;
+            mTimestampMillis = timestampMillis;
+        }
+
+        public Barcode getBarcode() {
+            return mBarcode;
+        }
+
+        /**
+         * Returns the wall clock time the barcode was recognized, see
+         * {@link System#currentTimeMillis()}.
+         */
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+    }
+
+    private final BatchListener mListener;
+    private final int mMaxBatchSize;
+    private final long mFlushIntervalMillis;
+    private final ScheduledExecutorService mExecutor;
+
+    // Guarded by this.
+    private List<ScannedBarcode> mBatch;
+    private final Set<String> mBatchKeys = new HashSet<>();
+    private ScheduledFuture<?> mScheduledFlush;
+    // Incremented with every flush, so that a timer of an earlier batch is ignored.
+    private int mBatchGeneration;
+    private boolean mClosed;
+
+    private BatchBarcodeRecognizer(BatchListener listener, int maxBatchSize,
+                                   long flushIntervalMillis) {
+        mListener = listener;
+        mMaxBatchSize = maxBatchSize;
+        mFlushIntervalMillis = flushIntervalMillis;
+        mBatch = new ArrayList<>(maxBatchSize);
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void onRecognized(Barcode item) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (mClosed || !mBatchKeys.add(item.format + ":" + item.rawValue)) {
+                return;
+            }
+            mBatch.add(new ScannedBarcode(item, now));
+            if (mBatch.size() >= mMaxBatchSize) {
+                flushLocked();
+            } else if (mBatch.size() == 1 && mFlushIntervalMillis > 0) {
+                final int generation = mBatchGeneration;
+                mScheduledFlush = mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushTimed(generation);
+                    }
+                }, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Flushes the barcodes collected so far, if any, without waiting for the batch to fill up.
+     */
+    public synchronized void flush() {
+        if (!mClosed) {
+            flushLocked();
+        }
+    }
+
+    /**
+     * Flushes the barcodes collected so far and stops the flush thread once it has delivered
+     * them.  Barcodes recognized afterwards are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        flushLocked();
+        mClosed = true;
+        mExecutor.shutdown();
+    }
+
+    private synchronized void flushTimed(int generation) {
+        if (!mClosed && generation == mBatchGeneration) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+        if (mBatch.isEmpty()) {
+            return;
+        }
+        mBatchGeneration++;
+
+        final List<ScannedBarcode> batch = Collections.unmodifiableList(mBatch);
+        mBatch = new ArrayList<>(mMaxBatchSize);
+        mBatchKeys.clear();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mListener.onBatch(batch);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Batch listener failed, " + batch.size() + " barcodes lost.", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Recognizer closed, dropping a batch of " + batch.size() + " barcodes.");
+        }
+    }
+
+    /**
+     * Builder for a batch recognizer.
+     */
+    public static class Builder {
+        private final BatchListener mListener;
+        private int mMaxBatchSize = 50;
+        private long mFlushIntervalMillis = 2000;
+
+        public Builder(BatchListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("No batch listener supplied.");
+            }
+            mListener = listener;
+        }
+
+        /**
+         * Sets the number of barcodes at which a batch is flushed.  Default: 50.
+         */
+        public Builder setMaxBatchSize(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Invalid batch size: " + size);
+            }
+            mMaxBatchSize = size;
+            return this;
+        }
+
+        /**
+         * Sets the time after the first barcode of a batch at which the batch is flushed, however
+         * few barcodes it holds, or 0 to only flush full batches.  Default: 2000 ms.
+         */
+        public Builder setFlushInterval(long intervalMillis) {
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("Invalid flush interval: " + intervalMillis);
+            }
+            mFlushIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        public BatchBarcodeRecognizer build() {
+            return new BatchBarcodeRecognizer(mListener, mMaxBatchSize, mFlushIntervalMillis);
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package com.bbbtech.barcodescan;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera2 backend of {@link CameraSource}, see {@link CameraSource.Builder#setCamera2Enabled}.
+ * <p/>
+ * Preview frames come from an {@link ImageReader} in {@link ImageFormat#YUV_420_888}.  The luma
+ * plane of each image is handed to the detector as it is, through a {@link FrameSlot} without an
+ * array, and the image is only closed once the slot is recycled.  If the luma rows are padded, they
+ * are copied into a buffer owned by the slot instead, and the image is closed right away.
+ * <p/>
+ * Focus, flash, exposure compensation and zoom are applied by updating the repeating request, so
+ * they take effect from the next frame on.  Camera callbacks and images are handled on a thread
+ * owned by the session.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Session implements FrameSlot.Recycler {
+
+    private static final String TAG = "Camera2Session";
+
+    private static final long OPEN_TIMEOUT_MS = 2500;
+
+    // Size of the focus and metering region in the middle of the frame, like the camera1 areas of
+    // CameraSource.
+    private static final int AREA_PER_1000 = 200;
+
+    // Zoom levels reported by zoom(), over the range of digital zoom ratios.
+    static final int MAX_ZOOM_LEVEL = 100;
+
+    /**
+     * Receives the frames of the session, on the session thread.
+     */
+    interface FrameCallback {
+        void onFrame(FrameSlot slot);
+    }
+
+    private final CameraManager mCameraManager;
+    private final FrameCallback mFrameCallback;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private CameraCharacteristics mCharacteristics;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private CaptureRequest.Builder mRequestBuilder;
+
+    private Size mPreviewSize;
+    private int mRotation;
+    private Rect mActiveArray;
+    private float mMaxZoomRatio = 1.0f;
+    private float mZoomRatio = 1.0f;
+    private CameraSource.AutoFocusCallback mAutoFocusCallback;
+
+    // Slots and the images they wrap, guarded by this.  A free slot has no image.
+    private FrameSlot[] mSlots;
+    private Image[] mImages;
+    private ByteBuffer[] mCopyBuffers;
+    private int[] mFreeSlots;
+    private int mFreeCount;
+    private boolean mClosed;
+
+    Camera2Session(Context context, int threadPriority, FrameCallback frameCallback) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mFrameCallback = frameCallback;
+        mThread = new HandlerThread(TAG, threadPriority);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Opens the camera and starts the repeating preview request.  Blocks until the capture session
+     * is configured.
+     *
+     * @param facing         {@link CameraSource#CAMERA_FACING_BACK} or
+     *                       {@link CameraSource#CAMERA_FACING_FRONT}
+     * @param surfaceHolder  the surface holder to show the preview on, or null for no preview;
+     *                       off the main thread, it is resized before the session is configured
+     * @param maxImages      the number of images that may be held at the same time
+     * @param displayDegrees the rotation of the display
+     * @throws IOException if the camera could not be opened or configured
+     */
+    void open(int facing, int requestedWidth, int requestedHeight, float requestedFps,
+              @Nullable SurfaceHolder surfaceHolder, int maxImages, int displayDegrees)
+            throws IOException, CameraNullPointerException {
+        try {
+            String cameraId = getIdForRequestedCamera(facing);
+            if (cameraId == null) {
+                throw new RuntimeException("Could not find requested camera.");
+            }
+            mCharacteristics = mCameraManager.getCameraCharacteristics(cameraId);
+
+            mPreviewSize = selectPreviewSize(requestedWidth, requestedHeight);
+            if (mPreviewSize == null) {
+                throw new RuntimeException("Could not find suitable preview size.");
+            }
+            Range<Integer> fpsRange = selectFpsRange(requestedFps);
+
+            // Same angle as the camera1 rotation, which corresponds to the rotation constants in
+            // Frame.  The preview surface is rotated by the system.
+            int orientation = mCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            int angle = (facing == CameraSource.CAMERA_FACING_FRONT)
+                    ? (orientation + displayDegrees) % 360
+                    : (orientation - displayDegrees + 360) % 360;
+            mRotation = angle / 90;
+
+            mActiveArray = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            Float maxZoom = mCharacteristics.get(
+                    CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+            mMaxZoomRatio = (maxZoom != null) ? Math.max(1.0f, maxZoom) : 1.0f;
+
+            createSlots(maxImages);
+            mImageReader = ImageReader.newInstance(mPreviewSize.getWidth(),
+                    mPreviewSize.getHeight(), ImageFormat.YUV_420_888, maxImages);
+            mImageReader.setOnImageAvailableListener(new ImageListener(), mHandler);
+
+            List<Surface> surfaces = new ArrayList<>(2);
+            surfaces.add(mImageReader.getSurface());
+            if (surfaceHolder != null) {
+                setFixedSize(surfaceHolder, mPreviewSize);
+                surfaces.add(surfaceHolder.getSurface());
+            }
+
+            mCameraDevice = openCamera(cameraId);
+            if (mCameraDevice == null) {
+                throw new CameraNullPointerException();
+            }
+            mCaptureSession = createCaptureSession(surfaces);
+            if (mCaptureSession == null) {
+                throw new IOException("Could not configure the camera capture session.");
+            }
+
+            mRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface surface : surfaces) {
+                mRequestBuilder.addTarget(surface);
+            }
+            mRequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            if (fpsRange != null) {
+                mRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            setMiddleRegions();
+            synchronized (this) {
+                updateRepeatingRequest();
+            }
+        } catch (CameraAccessException e) {
+            throw new IOException("Could not access the camera.", e);
+        }
+    }
+
+    Size getPreviewSize() {
+        return mPreviewSize;
+    }
+
+    int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Sets a camera1 focus mode, translated to the matching auto focus mode.
+     *
+     * @return {@code true} if the focus mode is supported
+     */
+    synchronized boolean setFocusMode(String mode) {
+        int afMode;
+        float focusDistance = -1;
+        switch (mode) {
+            case Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE:
+                afMode = CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+                break;
+            case Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO:
+                afMode = CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+                break;
+            case Camera.Parameters.FOCUS_MODE_AUTO:
+                afMode = CameraMetadata.CONTROL_AF_MODE_AUTO;
+                break;
+            case Camera.Parameters.FOCUS_MODE_MACRO:
+                afMode = CameraMetadata.CONTROL_AF_MODE_MACRO;
+                break;
+            case Camera.Parameters.FOCUS_MODE_EDOF:
+                afMode = CameraMetadata.CONTROL_AF_MODE_EDOF;
+                break;
+            case Camera.Parameters.FOCUS_MODE_INFINITY:
+                afMode = CameraMetadata.CONTROL_AF_MODE_OFF;
+                focusDistance = 0.0f;
+                break;
+            case Camera.Parameters.FOCUS_MODE_FIXED:
+                afMode = CameraMetadata.CONTROL_AF_MODE_OFF;
+                break;
+            default:
+                return false;
+        }
+
+        if (!contains(mCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES),
+                afMode)) {
+            return false;
+        }
+        mRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+        if (focusDistance >= 0) {
+            mRequestBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, focusDistance);
+        }
+        return updateRepeatingRequest();
+    }
+
+    /**
+     * Sets a camera1 flash mode, translated to the matching auto exposure and flash modes.
+     *
+     * @return {@code true} if the flash mode is supported
+     */
+    synchronized boolean setFlashMode(String mode) {
+        Boolean flashAvailable = mCharacteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        if (!Camera.Parameters.FLASH_MODE_OFF.equals(mode)
+                && (flashAvailable == null || !flashAvailable)) {
+            return false;
+        }
+
+        int aeMode = CameraMetadata.CONTROL_AE_MODE_ON;
+        int flashMode = CameraMetadata.FLASH_MODE_OFF;
+        switch (mode) {
+            case Camera.Parameters.FLASH_MODE_OFF:
+                break;
+            case Camera.Parameters.FLASH_MODE_TORCH:
+                flashMode = CameraMetadata.FLASH_MODE_TORCH;
+                break;
+            case Camera.Parameters.FLASH_MODE_ON:
+                aeMode = CameraMetadata.CONTROL_AE_MODE_ON_ALWAYS_FLASH;
+                break;
+            case Camera.Parameters.FLASH_MODE_AUTO:
+                aeMode = CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH;
+                break;
+            case Camera.Parameters.FLASH_MODE_RED_EYE:
+                aeMode = CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE;
+                break;
+            default:
+                return false;
+        }
+        mRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, aeMode);
+        mRequestBuilder.set(CaptureRequest.FLASH_MODE, flashMode);
+        return updateRepeatingRequest();
+    }
+
+    /**
+     * Sets the exposure compensation in steps of the camera.
+     *
+     * @return {@code true} if the value is in the supported range
+     */
+    synchronized boolean setExposureCompensation(int value) {
+        Range<Integer> range =
+                mCharacteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+        if (range == null || !range.contains(value)) {
+            return false;
+        }
+        mRequestBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, value);
+        return updateRepeatingRequest();
+    }
+
+    /**
+     * Zooms in for a scale above 1 and out for a scale below 1, following the steps of the camera1
+     * {@link CameraSource#doZoom(float)}.
+     *
+     * @return the new zoom level, from 0 to {@link #MAX_ZOOM_LEVEL}
+     */
+    synchronized int zoom(float scale) {
+        if (mMaxZoomRatio <= 1.0f || mActiveArray == null) {
+            Log.w(TAG, "Zoom is not supported on this device");
+            return 0;
+        }
+
+        float ratio;
+        if (scale > 1) {
+            ratio = mZoomRatio + scale * (mMaxZoomRatio - 1.0f) / 10;
+        } else {
+            ratio = mZoomRatio * scale;
+        }
+        mZoomRatio = Math.max(1.0f, Math.min(mMaxZoomRatio, ratio));
+
+        int cropWidth = (int) (mActiveArray.width() / mZoomRatio);
+        int cropHeight = (int) (mActiveArray.height() / mZoomRatio);
+        int left = mActiveArray.left + (mActiveArray.width() - cropWidth) / 2;
+        int top = mActiveArray.top + (mActiveArray.height() - cropHeight) / 2;
+        mRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION,
+                new Rect(left, top, left + cropWidth, top + cropHeight));
+        updateRepeatingRequest();
+        return Math.round((mZoomRatio - 1.0f) / (mMaxZoomRatio - 1.0f) * MAX_ZOOM_LEVEL);
+    }
+
+    /**
+     * Triggers an auto focus scan.  The callback is called on the session thread once the focus
+     * is locked, or right away if the current focus mode doesn't scan.
+     */
+    synchronized void autoFocus(@Nullable CameraSource.AutoFocusCallback cb) {
+        Integer afMode = mRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE);
+        if (afMode == null || afMode == CameraMetadata.CONTROL_AF_MODE_OFF
+                || afMode == CameraMetadata.CONTROL_AF_MODE_EDOF) {
+            if (cb != null) {
+                cb.onAutoFocus(true);
+            }
+            return;
+        }
+
+        mAutoFocusCallback = cb;
+        triggerAutoFocus(CameraMetadata.CONTROL_AF_TRIGGER_START);
+    }
+
+    synchronized void cancelAutoFocus() {
+        mAutoFocusCallback = null;
+        triggerAutoFocus(CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+    }
+
+    /**
+     * Stops the camera and quits the session thread.  Every image still held by a slot is closed
+     * along with the image reader, so this is only safe once frame processing has finished.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            mAutoFocusCallback = null;
+        }
+
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+
+        synchronized (this) {
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+            mImages = null;
+            mSlots = null;
+        }
+        mThread.quitSafely();
+    }
+
+    @Override
+    public synchronized void recycle(FrameSlot slot) {
+        if (mClosed || mSlots == null || mSlots[slot.index] != slot) {
+            return;
+        }
+
+        Image image = mImages[slot.index];
+        if (image != null) {
+            image.close();
+            mImages[slot.index] = null;
+        }
+        mFreeSlots[mFreeCount++] = slot.index;
+    }
+
+    private void createSlots(int count) {
+        synchronized (this) {
+            mSlots = new FrameSlot[count];
+            mImages = new Image[count];
+            mCopyBuffers = new ByteBuffer[count];
+            mFreeSlots = new int[count];
+            mFreeCount = 0;
+            for (int i = 0; i < count; ++i) {
+                mSlots[i] = new FrameSlot(i, this, mPreviewSize.getWidth(),
+                        mPreviewSize.getHeight());
+                mFreeSlots[mFreeCount++] = i;
+            }
+        }
+    }
+
+    /**
+     * Wraps the supplied image in a free slot, or returns null if there is none.
+     */
+    private synchronized FrameSlot takeSlot(Image image) {
+        if (mClosed || mFreeCount == 0) {
+            return null;
+        }
+
+        int index = mFreeSlots[--mFreeCount];
+        FrameSlot slot = mSlots[index];
+        Image.Plane luma = image.getPlanes()[0];
+        if (luma.getRowStride() == slot.width && luma.getPixelStride() == 1) {
+            // The plane is exactly width x height, so the detector can read it in place.
+            slot.setImageBuffer(luma.getBuffer());
+            mImages[index] = image;
+        } else {
+            // Padded rows: pack them into the buffer of the slot and give the image back.
+            if (mCopyBuffers[index] == null) {
+                mCopyBuffers[index] = ByteBuffer.allocateDirect(slot.width * slot.height);
+            }
+            copyLuma(luma, slot.width, slot.height, mCopyBuffers[index]);
+            slot.setImageBuffer(mCopyBuffers[index]);
+            image.close();
+        }
+        return slot;
+    }
+
+    private static void copyLuma(Image.Plane luma, int width, int height, ByteBuffer dst) {
+        ByteBuffer src = luma.getBuffer();
+        int rowStride = luma.getRowStride();
+        int pixelStride = luma.getPixelStride();
+        dst.clear();
+        for (int y = 0; y < height; ++y) {
+            int rowStart = y * rowStride;
+            if (pixelStride == 1) {
+                src.limit(rowStart + width);
+                src.position(rowStart);
+                dst.put(src);
+                src.limit(src.capacity());
+            } else {
+                for (int x = 0; x < width; ++x) {
+                    dst.put(src.get(rowStart + x * pixelStride));
+                }
+            }
+        }
+        dst.rewind();
+    }
+
+    private class ImageListener implements ImageReader.OnImageAvailableListener {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // Every image is held by a pending or processed frame.  The camera keeps the new
+                // frame until one of them is recycled.
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+
+            FrameSlot slot = takeSlot(image);
+            if (slot == null) {
+                image.close();
+                return;
+            }
+            mFrameCallback.onFrame(slot);
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            CameraSource.AutoFocusCallback callback;
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            synchronized (Camera2Session.this) {
+                callback = mAutoFocusCallback;
+                if (callback == null || afState == null
+                        || (afState != CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED
+                        && afState != CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED)) {
+                    return;
+                }
+                mAutoFocusCallback = null;
+            }
+            callback.onAutoFocus(afState == CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED);
+        }
+    };
+
+    private void triggerAutoFocus(int trigger) {
+        if (mCaptureSession == null) {
+            return;
+        }
+        try {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, trigger);
+            mCaptureSession.capture(mRequestBuilder.build(), mCaptureCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Could not trigger auto focus.", e);
+        } finally {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+    private boolean updateRepeatingRequest() {
+        if (mClosed || mCaptureSession == null) {
+            return false;
+        }
+        try {
+            mCaptureSession.setRepeatingRequest(mRequestBuilder.build(), mCaptureCallback,
+                    mHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Could not update the camera request.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Focuses and meters on the middle of the frame, like the camera1 setup of
+     * {@link CameraSource}.
+     */
+    private void setMiddleRegions() {
+        if (mActiveArray == null) {
+            return;
+        }
+        int halfWidth = mActiveArray.width() * AREA_PER_1000 / 2000;
+        int halfHeight = mActiveArray.height() * AREA_PER_1000 / 2000;
+        Rect middle = new Rect(
+                mActiveArray.centerX() - halfWidth, mActiveArray.centerY() - halfHeight,
+                mActiveArray.centerX() + halfWidth, mActiveArray.centerY() + halfHeight);
+        MeteringRectangle[] regions = {
+                new MeteringRectangle(middle, MeteringRectangle.METERING_WEIGHT_MAX)};
+
+        Integer maxAfRegions = mCharacteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        if (maxAfRegions != null && maxAfRegions > 0) {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+        }
+        Integer maxAeRegions = mCharacteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        if (maxAeRegions != null && maxAeRegions > 0) {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+    }
+
+    private String getIdForRequestedCamera(int facing) throws CameraAccessException {
+        int lensFacing = (facing == CameraSource.CAMERA_FACING_FRONT)
+                ? CameraMetadata.LENS_FACING_FRONT : CameraMetadata.LENS_FACING_BACK;
+        for (String id : mCameraManager.getCameraIdList()) {
+            Integer cameraFacing =
+                    mCameraManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (cameraFacing != null && cameraFacing == lensFacing) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the output size closest to the requested one, with the same measure as the camera1
+     * size selection of {@link CameraSource}.
+     */
+    private Size selectPreviewSize(int desiredWidth, int desiredHeight) {
+        StreamConfigurationMap map =
+                mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return null;
+        }
+
+        android.util.Size selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int diff = Math.abs(size.getWidth() - desiredWidth)
+                    + Math.abs(size.getHeight() - desiredHeight);
+            if (diff < minDiff) {
+                selected = size;
+                minDiff = diff;
+            }
+        }
+        return (selected != null) ? new Size(selected.getWidth(), selected.getHeight()) : null;
+    }
+
+    /**
+     * Selects the auto exposure fps range closest to the requested frame rate, with the same
+     * measure as the camera1 range selection of {@link CameraSource}.
+     */
+    private Range<Integer> selectFpsRange(float desiredFps) {
+        Range<Integer>[] ranges =
+                mCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+
+        // Unlike camera1, camera2 ranges are in frames per second.
+        Range<Integer> selected = null;
+        float minDiff = Float.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            float diff = Math.abs(desiredFps - range.getLower())
+                    + Math.abs(desiredFps - range.getUpper());
+            if (diff < minDiff) {
+                selected = range;
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    private CameraDevice openCamera(String cameraId) throws CameraAccessException, IOException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CameraDevice[] device = new CameraDevice[1];
+        mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+                device[0] = camera;
+                opened.countDown();
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                camera.close();
+                opened.countDown();
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                Log.e(TAG, "Camera error: " + error);
+                camera.close();
+                opened.countDown();
+            }
+        }, mHandler);
+        await(opened);
+        return device[0];
+    }
+
+    private CameraCaptureSession createCaptureSession(List<Surface> surfaces)
+            throws CameraAccessException, IOException {
+        final CountDownLatch configured = new CountDownLatch(1);
+        final CameraCaptureSession[] session = new CameraCaptureSession[1];
+        mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession captureSession) {
+                session[0] = captureSession;
+                configured.countDown();
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession captureSession) {
+                configured.countDown();
+            }
+        }, mHandler);
+        await(configured);
+        return session[0];
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for the camera.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the camera.", e);
+        }
+    }
+
+    /**
+     * Sizes the preview surface to the preview size, which has to happen on the main thread.  Off
+     * the main thread, waits until the surface has the new size, so that the capture session is
+     * configured with a surface of a supported output size.  On the main thread the surface is
+     * only resized by the next layout, which can't be waited for there.
+     */
+    private static void setFixedSize(final SurfaceHolder surfaceHolder, final Size size)
+            throws IOException {
+        final int width = size.getWidth();
+        final int height = size.getHeight();
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            surfaceHolder.setFixedSize(width, height);
+            return;
+        }
+
+        final CountDownLatch resized = new CountDownLatch(1);
+        final SurfaceHolder.Callback callback = new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+                if (w == width && h == height) {
+                    resized.countDown();
+                }
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                // Nothing left to wait for; configuring the session fails on its own.
+                resized.countDown();
+            }
+        };
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Rect frame = surfaceHolder.getSurfaceFrame();
+                if (frame.width() == width && frame.height() == height) {
+                    // Already sized, no surfaceChanged follows.
+                    resized.countDown();
+                    return;
+                }
+                surfaceHolder.addCallback(callback);
+                surfaceHolder.setFixedSize(width, height);
+            }
+        });
+        try {
+            await(resized);
+        } finally {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    surfaceHolder.removeCallback(callback);
+                }
+            });
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values == null) {
+            return false;
+        }
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,281 @@
+package com.bbbtech.barcodescan;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import com.google.android.gms.common.images.Size;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What {@link CameraSource} needs to know about a camera to configure it: the preview sizes
+ * paired with a picture size of the same aspect ratio, the preview fps ranges, the focus and flash
+ * modes and the vendor ISO parameter.
+ * <p/>
+ * Probing these takes a {@link Camera.Parameters} round trip into the camera service and pairing
+ * every preview size with every picture size, so the result is kept by
+ * {@link CameraCapabilityCache} and serialized to JSON for storage.
+ */
+@SuppressWarnings("deprecation")
+final class CameraCapabilities {
+
+    private static final String TAG = "CameraCapabilities";
+
+    /**
+     * If the absolute difference between a preview size aspect ratio and a picture size aspect
+     * ratio is less than this tolerance, they are considered to be the same aspect ratio.
+     */
+    private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
+
+    // Vendor parameters listing the supported ISO values, and the parameters to set them.
+    private static final String[][] ISO_KEYS = {
+            {"iso-speed-values", "iso-speed"},
+            {"iso-values", "iso"},
+    };
+
+    private static final String KEY_PREVIEW_SIZES = "previewSizes";
+    private static final String KEY_FPS_RANGES = "fpsRanges";
+    private static final String KEY_FOCUS_MODES = "focusModes";
+    private static final String KEY_FLASH_MODES = "flashModes";
+    private static final String KEY_ISO_KEY = "isoKey";
+    private static final String KEY_ISO_VALUES = "isoValues";
+
+    // Preview sizes and the picture size paired with each, or null if there is none.
+    private final List<Size> mPreviewSizes;
+    private final List<Size> mPictureSizes;
+    private final List<int[]> mFpsRanges;
+    private final List<String> mFocusModes;
+    private final List<String> mFlashModes;
+    private final String mIsoKey;
+    private final List<String> mIsoValues;
+
+    private CameraCapabilities(List<Size> previewSizes, List<Size> pictureSizes,
+                               List<int[]> fpsRanges, List<String> focusModes,
+                               List<String> flashModes, String isoKey, List<String> isoValues) {
+        mPreviewSizes = previewSizes;
+        mPictureSizes = pictureSizes;
+        mFpsRanges = fpsRanges;
+        mFocusModes = focusModes;
+        mFlashModes = flashModes;
+        mIsoKey = isoKey;
+        mIsoValues = isoValues;
+    }
+
+    /**
+     * Reads the capabilities from the parameters of an open camera.
+     */
+    static CameraCapabilities probe(Camera.Parameters parameters) {
+        List<Size> previewSizes = new ArrayList<>();
+        List<Size> pictureSizes = new ArrayList<>();
+        pairPreviewSizes(parameters, previewSizes, pictureSizes);
+
+        List<int[]> fpsRanges = new ArrayList<>();
+        for (int[] range : parameters.getSupportedPreviewFpsRange()) {
+            fpsRanges.add(new int[]{
+                    range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]});
+        }
+
+        String isoKey = null;
+        List<String> isoValues = null;
+        for (String[] keys : ISO_KEYS) {
+            String values = parameters.get(keys[0]);
+            if (values != null) {
+                isoKey = keys[1];
+                isoValues = copyOf(Arrays.asList(values.split(",")));
+                break;
+            }
+        }
+
+        return new CameraCapabilities(previewSizes, pictureSizes, fpsRanges,
+                copyOf(parameters.getSupportedFocusModes()),
+                copyOf(parameters.getSupportedFlashModes()), isoKey, isoValues);
+    }
+
+    /**
+     * Pairs each preview size with a picture size of the same aspect ratio.  Preview sizes are not
+     * acceptable if there is not a corresponding picture size of the same aspect ratio.
+     * <p/>
+     * This is necessary because even if we don't use still pictures, the still picture size must be
+     * set to a size that is the same aspect ratio as the preview size we choose.  Otherwise, the
+     * preview images may be distorted on some devices.
+     */
+    private static void pairPreviewSizes(Camera.Parameters parameters, List<Size> previewSizes,
+                                         List<Size> pictureSizes) {
+        List<Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+        List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+        for (Camera.Size previewSize : supportedPreviewSizes) {
+            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
+
+            // By looping through the picture sizes in order, we favor the higher resolutions.
+            // We choose the highest resolution in order to support taking the full resolution
+            // picture later.
+            for (Camera.Size pictureSize : supportedPictureSizes) {
+                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
+                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
+                    previewSizes.add(new Size(previewSize.width, previewSize.height));
+                    pictureSizes.add(new Size(pictureSize.width, pictureSize.height));
+                    break;
+                }
+            }
+        }
+
+        // If there are no picture sizes with the same aspect ratio as any preview sizes, allow all
+        // of the preview sizes and hope that the camera can handle it.  Probably unlikely, but we
+        // still account for it.
+        if (previewSizes.isEmpty()) {
+            Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
+            for (Camera.Size previewSize : supportedPreviewSizes) {
+                // The null picture size will let us know that we shouldn't set a picture size.
+                previewSizes.add(new Size(previewSize.width, previewSize.height));
+                pictureSizes.add(null);
+            }
+        }
+    }
+
+    int getPreviewSizeCount() {
+        return mPreviewSizes.size();
+    }
+
+    Size getPreviewSize(int index) {
+        return mPreviewSizes.get(index);
+    }
+
+    /**
+     * Returns the picture size paired with the preview size of the same index, or null if the
+     * picture size shouldn't be set.
+     */
+    Size getPictureSize(int index) {
+        return mPictureSizes.get(index);
+    }
+
+    /**
+     * Returns the supported preview fps ranges, indexed like the ranges of
+     * {@link Camera.Parameters#getSupportedPreviewFpsRange()}.
+     */
+    List<int[]> getFpsRanges() {
+        return mFpsRanges;
+    }
+
+    boolean isFocusModeSupported(String focusMode) {
+        return mFocusModes != null && mFocusModes.contains(focusMode);
+    }
+
+    boolean isFlashModeSupported(String flashMode) {
+        return mFlashModes != null && mFlashModes.contains(flashMode);
+    }
+
+    boolean hasFlash() {
+        return mFlashModes != null;
+    }
+
+    /**
+     * Returns the vendor parameter that takes the given ISO value, or null if the camera doesn't
+     * list the value.  Vendors differ in the format of the values, e.g. {@code 100} or
+     * {@code ISO100}, so a value not listed may make {@link Camera#setParameters} fail.
+     */
+    String getIsoKey(String iso) {
+        if (mIsoKey == null || mIsoValues == null) {
+            return null;
+        }
+        for (String value : mIsoValues) {
+            if (value.trim().equals(iso)) {
+                return mIsoKey;
+            }
+        }
+        return null;
+    }
+
+    String toJson() throws JSONException {
+        JSONArray sizes = new JSONArray();
+        for (int i = 0; i < mPreviewSizes.size(); ++i) {
+            Size preview = mPreviewSizes.get(i);
+            Size picture = mPictureSizes.get(i);
+            JSONArray pair = new JSONArray()
+                    .put(preview.getWidth())
+                    .put(preview.getHeight());
+            if (picture != null) {
+                pair.put(picture.getWidth()).put(picture.getHeight());
+            }
+            sizes.put(pair);
+        }
+
+        JSONArray fpsRanges = new JSONArray();
+        for (int[] range : mFpsRanges) {
+            fpsRanges.put(new JSONArray().put(range[0]).put(range[1]));
+        }
+
+        JSONObject json = new JSONObject()
+                .put(KEY_PREVIEW_SIZES, sizes)
+                .put(KEY_FPS_RANGES, fpsRanges);
+        if (mFocusModes != null) {
+            json.put(KEY_FOCUS_MODES, toJsonArray(mFocusModes));
+        }
+        if (mFlashModes != null) {
+            json.put(KEY_FLASH_MODES, toJsonArray(mFlashModes));
+        }
+        if (mIsoKey != null) {
+            json.put(KEY_ISO_KEY, mIsoKey);
+        }
+        if (mIsoValues != null) {
+            json.put(KEY_ISO_VALUES, toJsonArray(mIsoValues));
+        }
+        return json.toString();
+    }
+
+    static CameraCapabilities fromJson(String value) throws JSONException {
+        JSONObject json = new JSONObject(value);
+
+        JSONArray sizes = json.getJSONArray(KEY_PREVIEW_SIZES);
+        List<Size> previewSizes = new ArrayList<>(sizes.length());
+        List<Size> pictureSizes = new ArrayList<>(sizes.length());
+        for (int i = 0; i < sizes.length(); ++i) {
+            JSONArray pair = sizes.getJSONArray(i);
+            previewSizes.add(new Size(pair.getInt(0), pair.getInt(1)));
+            pictureSizes.add((pair.length() >= 4) ? new Size(pair.getInt(2), pair.getInt(3)) : null);
+        }
+
+        JSONArray ranges = json.getJSONArray(KEY_FPS_RANGES);
+        List<int[]> fpsRanges = new ArrayList<>(ranges.length());
+        for (int i = 0; i < ranges.length(); ++i) {
+            JSONArray range = ranges.getJSONArray(i);
+            fpsRanges.add(new int[]{range.getInt(0), range.getInt(1)});
+        }
+
+        return new CameraCapabilities(previewSizes, pictureSizes, fpsRanges,
+                fromJsonArray(json.optJSONArray(KEY_FOCUS_MODES)),
+                fromJsonArray(json.optJSONArray(KEY_FLASH_MODES)),
+                json.has(KEY_ISO_KEY) ? json.optString(KEY_ISO_KEY, null) : null,
+                fromJsonArray(json.optJSONArray(KEY_ISO_VALUES)));
+    }
+
+    private static JSONArray toJsonArray(List<String> values) {
+        JSONArray array = new JSONArray();
+        for (String value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    private static List<String> fromJsonArray(JSONArray array) throws JSONException {
+        if (array == null) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); ++i) {
+            values.add(array.getString(i));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static List<String> copyOf(List<String> values) {
+        return (values != null) ? Collections.unmodifiableList(new ArrayList<>(values)) : null;
+    }
+}
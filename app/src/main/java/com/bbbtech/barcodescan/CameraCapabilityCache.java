@@ -0,0 +1,95 @@
+package com.bbbtech.barcodescan;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.json.JSONException;
+
+/**
+ * Process wide cache of {@link CameraCapabilities}, backed by shared preferences so that the
+ * camera is only probed once per device and OS build.
+ * <p/>
+ * Entries are keyed by camera id.  The store also records the {@link Build#FINGERPRINT} it was
+ * written for, and is cleared as soon as it is read on a different build, since an OS update can
+ * change what the camera HAL reports.
+ */
+@SuppressWarnings("deprecation")
+final class CameraCapabilityCache {
+
+    private static final String TAG = "CameraCapabilityCache";
+
+    private static final String PREFS_NAME = "com.bbbtech.barcodescan.camera_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAMERA_PREFIX = "camera_";
+
+    private static CameraCapabilityCache sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    // Guarded by this.
+    private final SparseArray<CameraCapabilities> mCapabilities = new SparseArray<>();
+    private boolean mFingerprintChecked;
+
+    private CameraCapabilityCache(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    static synchronized CameraCapabilityCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the capabilities of the given camera, probing the supplied parameters of the open
+     * camera only if they are neither in memory nor stored for the current OS build.
+     */
+    synchronized CameraCapabilities get(int cameraId, Camera.Parameters parameters) {
+        CameraCapabilities capabilities = mCapabilities.get(cameraId);
+        if (capabilities != null) {
+            return capabilities;
+        }
+
+        checkFingerprint();
+        String key = KEY_CAMERA_PREFIX + cameraId;
+        String stored = mPreferences.getString(key, null);
+        if (stored != null) {
+            try {
+                capabilities = CameraCapabilities.fromJson(stored);
+            } catch (JSONException e) {
+                Log.w(TAG, "Dropping unreadable capabilities of camera " + cameraId, e);
+            }
+        }
+
+        if (capabilities == null) {
+            capabilities = CameraCapabilities.probe(parameters);
+            try {
+                mPreferences.edit().putString(key, capabilities.toJson()).apply();
+            } catch (JSONException e) {
+                Log.w(TAG, "Could not store capabilities of camera " + cameraId, e);
+            }
+        }
+
+        mCapabilities.put(cameraId, capabilities);
+        return capabilities;
+    }
+
+    private void checkFingerprint() {
+        if (mFingerprintChecked) {
+            return;
+        }
+        mFingerprintChecked = true;
+
+        if (!Build.FINGERPRINT.equals(mPreferences.getString(KEY_FINGERPRINT, null))) {
+            mPreferences.edit()
+                    .clear()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .apply();
+        }
+    }
+}
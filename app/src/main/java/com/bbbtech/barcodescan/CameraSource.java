@@ -19,42 +19,48 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
-import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.WindowManager;
 
+import com.bbbtech.barcodescan.frame.FrameGeometry;
+import com.bbbtech.barcodescan.frame.LumaStats;
+import com.bbbtech.barcodescan.frame.Nv21Utils;
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
@@ -93,12 +99,6 @@ public class CameraSource {
      */
     private static final int DUMMY_TEXTURE_NAME = 100;
 
-    /**
-     * If the absolute difference between a preview size aspect ratio and a picture size aspect
-     * ratio is less than this tolerance, they are considered to be the same aspect ratio.
-     */
-    private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
-
     @StringDef({
         Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
         Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO,
@@ -134,6 +134,16 @@ public class CameraSource {
     // Guarded by mCameraLock
     private Camera mCamera;
 
+    // Camera2 backend, used instead of mCamera when enabled.  Guarded by mCameraLock.
+    private boolean mCamera2Enabled = false;
+    private Camera2Session mCamera2Session;
+
+    // Recording replayed instead of opening a camera, or null.  Guarded by mCameraLock.
+    private File mReplayFile;
+    private boolean mReplayAtRecordedSpeed;
+    private Runnable mReplayFinishedCallback;
+    private FrameReplaySource mReplaySource;
+
     private int mFacing = CAMERA_FACING_BACK;
 
     /**
@@ -154,6 +164,9 @@ public class CameraSource {
     private String mFocusMode = null;
     private String mFlashMode = null;
 
+    // Keeps the probed camera capabilities across starts and app launches.
+    private boolean mCapabilityCacheEnabled = true;
+
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
     // references maintained to them.
@@ -161,20 +174,70 @@ public class CameraSource {
     private SurfaceTexture mDummySurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
+     * Dedicated threads and associated runnables for calling into the detectors with frames, as
+     * the frames become available from the camera.  There is one of each per detection worker,
+     * all fed from the same frame handoff.
+     */
+    private Thread[] mProcessingThreads;
+    private FrameProcessingRunnable[] mFrameProcessors;
+    private FrameHandoff mFrameHandoff;
+
+    /**
+     * Optional processor receiving the detection results directly from this camera source.  When
+     * set, the detectors are only used to detect() and their own processors are not called.
      */
-    private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
+    private Detector.Processor<?> mProcessor;
+    private OrderedDetectionDelivery mDetectionDelivery;
+
+    // Part of the preview view that frames are cropped to before detection, or null.
+    private volatile ScanWindow mScanWindow;
+
+    // Success counters of the half resolution decode pass, or null if it is not used.
+    private DecodePyramid.Stats mDecodePyramidStats;
+
+    // Drops blurred frames before detection, or null if every frame is detected.
+    private SharpnessGate mSharpnessGate;
+
+    // Skips frames of an unchanged empty scene, or null if every frame is detected.
+    private StaticSceneGate mStaticSceneGate;
+
+    // Per stage latencies and frame counters, see getFrameStats().
+    private final FrameStats mFrameStats = new FrameStats();
 
     private CameraFrameListener mFrameListener;
 
+    // Listeners added with addFrameListener().  Replaced as a whole, so that the processing
+    // threads can walk it without locking.
+    private final Object mFrameListenerLock = new Object();
+    private volatile FrameListenerDispatcher[] mFrameListenerDispatchers =
+            new FrameListenerDispatcher[0];
+
+    /**
+     * Thread owning the camera.  The camera is opened on it, so that its looper receives the
+     * preview, auto focus and auto focus move callbacks and runs the auto focus manager, without
+     * depending on the load of the main thread.  It is created on the first start and quit on
+     * release().
+     */
+    private final Object mCameraThreadLock = new Object();
+    private int mCameraThreadPriority = Process.THREAD_PRIORITY_DISPLAY;
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Incremented by every asynchronous start, stop() and release().  A start still waiting for
+     * the camera thread is dropped once the generation has moved on, and so is the callback of a
+     * start that has been overtaken by a later call.
+     */
+    private final AtomicInteger mStartGeneration = new AtomicInteger();
+
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Preview buffers handed to the camera.  The pool is kept across stop() and start(), so the
+     * buffers are only allocated again when the preview size changes.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private int mMinPreviewBuffers = 4;
+    private int mMaxPreviewBuffers = 6;
+    private FrameBufferPool mFrameBufferPool;
 
     // Customize
     private boolean mMacroModeEnabled = false;
@@ -191,6 +254,8 @@ public class CameraSource {
     public static class Builder {
         private final Detector<?> mDetector;
         private CameraSource mCameraSource = new CameraSource();
+        private int mDetectionWorkerCount = 1;
+        private DetectorFactory mDetectorFactory;
 
         /**
          * Creates a camera source builder with the supplied context and detector.  Camera preview
@@ -271,11 +336,181 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets the bounds of the preview buffer pool.  The pool starts with the minimum number of
+         * buffers and grows towards the maximum whenever the camera runs out of buffers to fill,
+         * shrinking back once frames are consumed fast enough again.  Default: 4 to 6.
+         */
+        public Builder setPreviewBufferCount(int minBuffers, int maxBuffers) {
+            // one for the frame being detected, one pending and at least one for the camera
+            if ((minBuffers < 3) || (maxBuffers < minBuffers)) {
+                throw new IllegalArgumentException(
+                        "Invalid preview buffer count: " + minBuffers + " to " + maxBuffers);
+            }
+            mCameraSource.mMinPreviewBuffers = minBuffers;
+            mCameraSource.mMaxPreviewBuffers = maxBuffers;
+            return this;
+        }
+
+        /**
+         * Sets the processor that receives the detection results.  When set, the camera source
+         * calls {@link Detector#detect(Frame)} itself and hands the results to this processor, so
+         * the processor of the detector isn't used.  Required for
+         * {@link #setDetectionWorkers(int, DetectorFactory)}.
+         */
+        public Builder setProcessor(Detector.Processor<?> processor) {
+            mCameraSource.mProcessor = processor;
+            return this;
+        }
+
+        /**
+         * Runs detection on several frames at the same time, each worker with its own detector on
+         * its own thread.  The detector supplied to the builder is used by the first worker, the
+         * factory creates the detectors of the others.  Results still reach the processor set
+         * with {@link #setProcessor(Detector.Processor)} one at a time and in frame order.
+         * Default: a single worker.
+         */
+        public Builder setDetectionWorkers(int workerCount, DetectorFactory factory) {
+            if (workerCount < 1) {
+                throw new IllegalArgumentException("Invalid detection worker count: " + workerCount);
+            }
+            if (workerCount > 1 && factory == null) {
+                throw new IllegalArgumentException("No detector factory supplied.");
+            }
+            mDetectionWorkerCount = workerCount;
+            mDetectorFactory = factory;
+            return this;
+        }
+
+        /**
+         * Runs detection on a half resolution copy of each frame first, and only on the full
+         * resolution frame when nothing was found there.  The half resolution pass is skipped
+         * automatically while it rarely finds anything.  Requires a processor set with
+         * {@link #setProcessor(Detector.Processor)}.  Default: disabled.
+         */
+        public Builder setDecodePyramidEnabled(boolean enabled) {
+            mCameraSource.mDecodePyramidStats = enabled ? new DecodePyramid.Stats() : null;
+            return this;
+        }
+
+        /**
+         * Skips detection on frames that are blurred compared to the recent frames, e.g. while
+         * the device is swept across a package.  The sharpness is measured inside the scan window
+         * if one is set.  Default: disabled.
+         */
+        public Builder setSharpnessGateEnabled(boolean enabled) {
+            mCameraSource.mSharpnessGate = enabled ? new SharpnessGate() : null;
+            return this;
+        }
+
+        /**
+         * Skips detection while the frame hasn't changed since the last frame without any
+         * detections, which saves battery while the device rests in front of an empty scene.
+         * Detection still runs at least once per {@code forcedDetectionIntervalMillis}.  Requires
+         * a processor set with {@link #setProcessor(Detector.Processor)}.  Default: disabled.
+         */
+        public Builder setStaticSceneGate(boolean enabled, long forcedDetectionIntervalMillis) {
+            if (enabled && forcedDetectionIntervalMillis <= 0) {
+                throw new IllegalArgumentException(
+                        "Invalid forced detection interval: " + forcedDetectionIntervalMillis);
+            }
+            mCameraSource.mStaticSceneGate =
+                    enabled ? new StaticSceneGate(forcedDetectionIntervalMillis) : null;
+            return this;
+        }
+
+        /**
+         * Sets whether the supported sizes, fps ranges and modes of the camera are kept in a
+         * persistent cache, so that later starts skip probing the camera.  The cache is cleared
+         * when the OS build changes.  Default: enabled.
+         */
+        public Builder setCapabilityCacheEnabled(boolean enabled) {
+            mCameraSource.mCapabilityCacheEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets whether the camera is driven through the camera2 API instead of the deprecated
+         * camera1 API.  Frames then come from an {@code ImageReader} in {@code YUV_420_888}, and
+         * the luma plane is handed to the detector without copying.
+         * <p/>
+         * The camera2 frames carry no NV21 array, so the scan window crop, the decode pyramid,
+         * the sharpness and static scene gates, the front camera mirroring and the
+         * {@link CameraFrameListener} are skipped.  {@link #takePicture} and
+         * {@link #setAutoFocusMoveCallback} aren't supported either.  Default: disabled.
+         */
+        public Builder setCamera2Enabled(boolean enabled) {
+            mCameraSource.mCamera2Enabled = enabled;
+            return this;
+        }
+
+        /**
+         * Replays a recording of {@link FrameRecorder} instead of opening a camera.  The frames go
+         * through the same processing as camera frames, with their recorded timestamps and
+         * rotation, and the camera facing of the recording.  Each frame is only handed over once
+         * the previous one has been taken by a detection worker, so no frame is dropped and the
+         * same recording gives the same detections every time.  Camera controls have no effect.
+         * Requires a single detection worker, since several workers would finish frames in an
+         * order depending on timing.
+         *
+         * @param recordedSpeed    whether frames are paced by their recorded timestamps, rather
+         *                         than replayed as fast as detection goes
+         * @param finishedCallback called on the replay thread once the last frame has been
+         *                         handed to the detection workers, or null
+         */
+        public Builder setReplay(File file, boolean recordedSpeed,
+                                 @Nullable Runnable finishedCallback) {
+            mCameraSource.mReplayFile = file;
+            mCameraSource.mReplayAtRecordedSpeed = recordedSpeed;
+            mCameraSource.mReplayFinishedCallback = finishedCallback;
+            return this;
+        }
+
+        /**
+         * Sets the priority of the camera thread, which opens the camera and receives its
+         * callbacks, as one of the {@link Process} thread priorities.  Default:
+         * {@link Process#THREAD_PRIORITY_DISPLAY}.
+         */
+        public Builder setCameraThreadPriority(int priority) {
+            mCameraSource.mCameraThreadPriority = priority;
+            return this;
+        }
+
         /**
          * Creates an instance of the camera source.
          */
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
+            if (mDetectionWorkerCount > 1 && mCameraSource.mProcessor == null) {
+                throw new IllegalStateException("Detection workers require a processor.");
+            }
+            if (mCameraSource.mDecodePyramidStats != null && mCameraSource.mProcessor == null) {
+                throw new IllegalStateException("The decode pyramid requires a processor.");
+            }
+            if (mCameraSource.mStaticSceneGate != null && mCameraSource.mProcessor == null) {
+                throw new IllegalStateException("The static scene gate requires a processor.");
+            }
+            if (mCameraSource.mReplayFile != null && mDetectionWorkerCount > 1) {
+                throw new IllegalStateException("Replay requires a single detection worker.");
+            }
+
+            // Every worker may hold a frame until its result is delivered, on top of the pending
+            // frame and the buffers queued to the camera.
+            int minBuffers = Math.max(mCameraSource.mMinPreviewBuffers, mDetectionWorkerCount + 2);
+            int maxBuffers = Math.max(mCameraSource.mMaxPreviewBuffers, minBuffers);
+            mCameraSource.mFrameBufferPool = new FrameBufferPool(minBuffers, maxBuffers);
+            mCameraSource.mMaxPreviewBuffers = maxBuffers;
+
+            if (mCameraSource.mProcessor != null) {
+                mCameraSource.mDetectionDelivery = new OrderedDetectionDelivery(
+                        mCameraSource.mProcessor, mDetectionWorkerCount);
+            }
+            mCameraSource.mFrameHandoff = mCameraSource.new FrameHandoff(mDetectionWorkerCount);
+            mCameraSource.mFrameProcessors = new FrameProcessingRunnable[mDetectionWorkerCount];
+            for (int i = 0; i < mDetectionWorkerCount; ++i) {
+                Detector<?> detector = (i == 0) ? mDetector : mDetectorFactory.create();
+                mCameraSource.mFrameProcessors[i] =
+                        mCameraSource.new FrameProcessingRunnable(i, detector);
+            }
             return mCameraSource;
         }
     }
@@ -284,6 +519,106 @@ public class CameraSource {
     // Bridge Functionality for the Camera1 API
     //==============================================================================================
 
+    /**
+     * Creates the detectors for additional detection workers, see
+     * {@link Builder#setDetectionWorkers(int, DetectorFactory)}.  Each call must return a new
+     * detector instance configured like the one supplied to the builder.
+     */
+    public interface DetectorFactory {
+        Detector<?> create();
+    }
+
+    /**
+     * Snapshot of the preview buffer pool, see {@link #getBufferPoolStats()}.
+     */
+    public static class BufferPoolStats {
+        private final int mBufferSize;
+        private final int mAllocatedCount;
+        private final int mTargetCount;
+        private final int mQueuedCount;
+        private final int mInUseCount;
+        private final int mIdleCount;
+        private final long mStarvedCount;
+
+        BufferPoolStats(int bufferSize, int allocatedCount, int targetCount, int queuedCount,
+                        int inUseCount, int idleCount, long starvedCount) {
+            mBufferSize = bufferSize;
+            mAllocatedCount = allocatedCount;
+            mTargetCount = targetCount;
+            mQueuedCount = queuedCount;
+            mInUseCount = inUseCount;
+            mIdleCount = idleCount;
+            mStarvedCount = starvedCount;
+        }
+
+        /** Size of a single preview buffer in bytes. */
+        public int getBufferSize() {
+            return mBufferSize;
+        }
+
+        /** Number of buffers currently allocated by the pool. */
+        public int getAllocatedCount() {
+            return mAllocatedCount;
+        }
+
+        /** Number of buffers the pool is currently aiming for. */
+        public int getTargetCount() {
+            return mTargetCount;
+        }
+
+        /** Number of buffers queued to the camera, waiting to be filled. */
+        public int getQueuedCount() {
+            return mQueuedCount;
+        }
+
+        /** Number of filled buffers pending or being processed. */
+        public int getInUseCount() {
+            return mInUseCount;
+        }
+
+        /** Number of buffers kept while the camera is stopped. */
+        public int getIdleCount() {
+            return mIdleCount;
+        }
+
+        /** Number of times the camera was left without a buffer to fill. */
+        public long getStarvedCount() {
+            return mStarvedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPoolStats{bufferSize=" + mBufferSize
+                    + ", allocated=" + mAllocatedCount
+                    + ", target=" + mTargetCount
+                    + ", queued=" + mQueuedCount
+                    + ", inUse=" + mInUseCount
+                    + ", idle=" + mIdleCount
+                    + ", starved=" + mStarvedCount + "}";
+        }
+    }
+
+    /**
+     * Callback interface used to report the outcome of
+     * {@link CameraSource#startAsync(SurfaceHolder, StartCallback)}.  Both methods are called on
+     * the main thread.
+     */
+    public interface StartCallback {
+        /**
+         * Called when the camera preview is running.
+         *
+         * @param previewSize the preview size chosen for the camera
+         */
+        void onStarted(Size previewSize);
+
+        /**
+         * Called when the camera could not be started.  The exception is the one
+         * {@link CameraSource#start(SurfaceHolder)} would have thrown, e.g. a
+         * {@link CameraNullPointerException} or an {@link IOException}.
+         */
+        void onStartFailed(Exception e);
+    }
+
     /**
      * Callback interface used to signal the moment of actual image capture.
      */
@@ -351,25 +686,133 @@ public class CameraSource {
      * Stops the camera and releases the resources of the camera and underlying detector.
      */
     public void release() {
+        mStartGeneration.incrementAndGet();
         synchronized (mCameraLock) {
-            stop();
-            mFrameProcessor.release();
+            stopCamera();
+            for (FrameProcessingRunnable frameProcessor : mFrameProcessors) {
+                frameProcessor.release();
+            }
+            if (mProcessor != null) {
+                mProcessor.release();
+            }
+            mFrameBufferPool.release();
+        }
+
+        synchronized (mFrameListenerLock) {
+            for (FrameListenerDispatcher dispatcher : mFrameListenerDispatchers) {
+                dispatcher.close();
+            }
+            mFrameListenerDispatchers = new FrameListenerDispatcher[0];
+        }
+
+        synchronized (mCameraThreadLock) {
+            if (mCameraThread != null) {
+                mCameraThread.quitSafely();
+                mCameraThread = null;
+                mCameraHandler = null;
+            }
         }
     }
 
     /**
      * Opens the camera and starts sending preview frames to the underlying detector.  The preview
      * frames are not displayed.
+     * <p/>
+     * The camera is opened on the camera thread, and this call blocks until it is running.
      *
      * @throws IOException if the camera's preview texture or display could not be initialized
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException, CameraNullPointerException {
+        return callOnCameraThread(new Callable<CameraSource>() {
+            @Override
+            public CameraSource call() throws Exception {
+                //noinspection MissingPermission
+                return startOnCameraThread();
+            }
+        });
+    }
+
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector.  The supplied
+     * surface holder is used for the preview so frames can be displayed to the user.
+     * <p/>
+     * The camera is opened on the camera thread, and this call blocks until it is running.  Use
+     * {@link #startAsync(SurfaceHolder, StartCallback)} to start the camera without blocking.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames
+     * @throws IOException if the supplied surface holder could not be used as the preview display
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public CameraSource start(final SurfaceHolder surfaceHolder) throws IOException, CameraNullPointerException {
+        return callOnCameraThread(new Callable<CameraSource>() {
+            @Override
+            public CameraSource call() throws Exception {
+                //noinspection MissingPermission
+                return startOnCameraThread(surfaceHolder);
+            }
+        });
+    }
+
+    /**
+     * Runs a start on the camera thread and waits for it.  The camera lock is only taken on the
+     * camera thread, so that a start waiting here can't block an asynchronous start that is
+     * already running there.
+     */
+    private CameraSource callOnCameraThread(Callable<CameraSource> start)
+            throws IOException, CameraNullPointerException {
+        Handler cameraHandler = getCameraHandler();
+        if (Looper.myLooper() == cameraHandler.getLooper()) {
+            try {
+                return start.call();
+            } catch (IOException | CameraNullPointerException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        FutureTask<CameraSource> task = new FutureTask<>(start);
+        if (!cameraHandler.post(task)) {
+            throw new IOException("The camera thread has been released.");
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting the camera.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof CameraNullPointerException) {
+                throw (CameraNullPointerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private CameraSource startOnCameraThread() throws IOException, CameraNullPointerException {
         synchronized (mCameraLock) {
+            if (mReplayFile != null) {
+                return startReplay();
+            }
+            if (mCamera2Enabled) {
+                return startCamera2(null);
+            }
             if (mCamera != null) {
                 return this;
             }
 
+            // A frame published while the previous camera was being stopped belongs to a buffer
+            // the pool has already taken back.  Camera callbacks run on this thread, so none of
+            // them is still running.
+            mFrameHandoff.clearPendingFrame();
             mCamera = createCamera();
 
             // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
@@ -383,74 +826,217 @@ public class CameraSource {
             }
             mCamera.startPreview();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            startProcessingThreads();
         }
         return this;
     }
 
-    /**
-     * Opens the camera and starts sending preview frames to the underlying detector.  The supplied
-     * surface holder is used for the preview so frames can be displayed to the user.
-     *
-     * @param surfaceHolder the surface holder to use for the preview frames
-     * @throws IOException if the supplied surface holder could not be used as the preview display
-     */
     @RequiresPermission(Manifest.permission.CAMERA)
-    public CameraSource start(SurfaceHolder surfaceHolder) throws IOException, CameraNullPointerException {
+    private CameraSource startOnCameraThread(SurfaceHolder surfaceHolder)
+            throws IOException, CameraNullPointerException {
         synchronized (mCameraLock) {
+            if (mReplayFile != null) {
+                return startReplay();
+            }
+            if (mCamera2Enabled) {
+                return startCamera2(surfaceHolder);
+            }
             if (mCamera != null) {
                 return this;
             }
 
+            // Drops a frame left over from the previous camera, see startOnCameraThread().
+            mFrameHandoff.clearPendingFrame();
             mCamera = createCamera();
             mCamera.setPreviewDisplay(surfaceHolder);
             mCamera.startPreview();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            startProcessingThreads();
 
             // customize: Macro Mode + Autofocus
             if (mMacroModeEnabled) {
-                mAutoFocusManager = new AutoFocusManager(mCamera);
+                mAutoFocusManager = new AutoFocusManager(mCamera, Looper.myLooper());
             }
         }
         return this;
     }
 
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private CameraSource startCamera2(@Nullable SurfaceHolder surfaceHolder)
+            throws IOException, CameraNullPointerException {
+        if (mCamera2Session != null) {
+            return this;
+        }
+
+        mFrameHandoff.clearPendingFrame();
+        Camera2Session session = new Camera2Session(mContext, mCameraThreadPriority,
+                new Camera2Session.FrameCallback() {
+                    @Override
+                    public void onFrame(FrameSlot slot) {
+                        long startNanos = System.nanoTime();
+                        mFrameStats.onFrameDelivered(startNanos);
+                        mFrameHandoff.setNextFrame(slot);
+                        mFrameStats.recordSince(FrameStats.Stage.PREVIEW_CALLBACK, startNanos);
+                    }
+                });
+        try {
+            session.open(mFacing, mRequestedPreviewWidth, mRequestedPreviewHeight, mRequestedFps,
+                    surfaceHolder, mMaxPreviewBuffers, getDisplayRotationDegrees());
+        } catch (IOException | CameraNullPointerException | RuntimeException e) {
+            session.close();
+            throw e;
+        }
+
+        mCamera2Session = session;
+        mPreviewSize = session.getPreviewSize();
+        mRotation = session.getRotation();
+        if (mFocusMode != null && !session.setFocusMode(mFocusMode)) {
+            Log.i(TAG, "Camera focus mode: " + mFocusMode + " is not supported on this device.");
+        }
+        if (mFlashMode != null && !session.setFlashMode(mFlashMode)) {
+            Log.i(TAG, "Camera flash mode: " + mFlashMode + " is not supported on this device.");
+        }
+
+        startProcessingThreads();
+        return this;
+    }
+
+    private CameraSource startReplay() throws IOException {
+        if (mReplaySource != null) {
+            return this;
+        }
+
+        mFrameHandoff.clearPendingFrame();
+        FrameReplaySource source = new FrameReplaySource(mReplayFile, mReplayAtRecordedSpeed,
+                mMaxPreviewBuffers, mCameraThreadPriority,
+                new FrameReplaySource.FrameCallback() {
+                    @Override
+                    public void onFrame(FrameSlot slot) throws InterruptedException {
+                        mFrameStats.onFrameDelivered(System.nanoTime());
+                        mFrameHandoff.setReplayedFrame(slot);
+                    }
+                }, mReplayFinishedCallback);
+
+        mReplaySource = source;
+        mPreviewSize = source.getPreviewSize();
+        mFacing = source.getFacing();
+
+        startProcessingThreads();
+        source.start();
+        return this;
+    }
+
+    /**
+     * Opens the camera and starts the preview on the supplied surface holder, like
+     * {@link #start(SurfaceHolder)}, but on a dedicated camera thread so that the caller isn't
+     * blocked while the camera is opened and configured.  The outcome is reported to the callback
+     * on the main thread.
+     * <p/>
+     * A start that hasn't run yet when {@link #stop()} or {@link #release()} is called is dropped
+     * without calling the callback.  A start that is already running completes first, and is then
+     * undone by the stop; its callback isn't called either.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames
+     * @param callback      receives the chosen preview size, or the reason the start failed
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void startAsync(final SurfaceHolder surfaceHolder, final StartCallback callback) {
+        final int generation = mStartGeneration.incrementAndGet();
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                Size previewSize = null;
+                Exception error = null;
+                synchronized (mCameraLock) {
+                    if (generation != mStartGeneration.get()) {
+                        // Stopped, released or started again in the meantime.
+                        return;
+                    }
+                    try {
+                        //noinspection MissingPermission
+                        startOnCameraThread(surfaceHolder);
+                        previewSize = mPreviewSize;
+                    } catch (Exception e) {
+                        Log.e(TAG, "Could not start camera source.", e);
+                        error = e;
+                        stopCamera();
+                    }
+                }
+                postStartResult(generation, callback, previewSize, error);
+            }
+        });
+    }
+
+    private void postStartResult(final int generation, final StartCallback callback,
+                                 final Size previewSize, final Exception error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mStartGeneration.get()) {
+                    return;
+                }
+                if (error == null) {
+                    callback.onStarted(previewSize);
+                } else {
+                    callback.onStartFailed(error);
+                }
+            }
+        });
+    }
+
+    private Handler getCameraHandler() {
+        synchronized (mCameraThreadLock) {
+            if (mCameraThread == null) {
+                mCameraThread = new HandlerThread("CameraSource", mCameraThreadPriority);
+                mCameraThread.start();
+                mCameraHandler = new Handler(mCameraThread.getLooper());
+            }
+            return mCameraHandler;
+        }
+    }
+
     /**
      * Closes the camera and stops sending frames to the underlying frame detector.
      * <p/>
-     * This camera source may be restarted again by calling {@link #start()} or
-     * {@link #start(SurfaceHolder)}.
+     * This camera source may be restarted again by calling {@link #start()},
+     * {@link #start(SurfaceHolder)} or {@link #startAsync(SurfaceHolder, StartCallback)}.  An
+     * asynchronous start that is still pending is cancelled.
      * <p/>
      * Call {@link #release()} instead to completely shut down this camera source and release the
      * resources of the underlying detector.
      */
     public void stop() {
+        mStartGeneration.incrementAndGet();
+        stopCamera();
+    }
+
+    private void stopCamera() {
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
+            mFrameHandoff.setActive(false);
+            if (mProcessingThreads != null) {
+                for (Thread processingThread : mProcessingThreads) {
+                    try {
+                        // Wait for the thread to complete to ensure that we can't have multiple
+                        // threads executing at the same time (i.e., which would happen if we
+                        // called start too quickly after stop).
+                        processingThread.join();
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, "Frame processing thread interrupted on release.");
+                    }
                 }
-                mProcessingThread = null;
+                mProcessingThreads = null;
             }
 
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
-
             if (mCamera != null) {
                 mCamera.stopPreview();
                 mCamera.setPreviewCallbackWithBuffer(null);
 
+                // No buffer is handed back to the camera from here on, not even by a frame
+                // listener releasing its lease.  The preview buffers are kept for the next start,
+                // as long as the preview size doesn't change.
+                mFrameHandoff.clearPendingFrame();
+                mFrameBufferPool.detach();
+
                 try {
                     // We want to be compatible back to Gingerbread, but SurfaceTexture
                     // wasn't introduced until Honeycomb.  Since the interface cannot use a SurfaceTexture, if the
@@ -476,6 +1062,29 @@ public class CameraSource {
                 mCamera.release();
                 mCamera = null;
             }
+
+            if (mCamera2Session != null) {
+                mCamera2Session.close();
+                mCamera2Session = null;
+            }
+
+            if (mReplaySource != null) {
+                mReplaySource.close();
+                mReplaySource = null;
+            }
+
+            mFrameHandoff.clearPendingFrame();
+            mFrameBufferPool.detach();
+        }
+    }
+
+    private void startProcessingThreads() {
+        mFrameStats.onSessionStarted();
+        mFrameHandoff.setActive(true);
+        mProcessingThreads = new Thread[mFrameProcessors.length];
+        for (int i = 0; i < mFrameProcessors.length; ++i) {
+            mProcessingThreads[i] = new Thread(mFrameProcessors[i]);
+            mProcessingThreads[i].start();
         }
     }
 
@@ -492,6 +1101,133 @@ public class CameraSource {
         return mPreviewSize;
     }
 
+    /**
+     * Restricts detection to the part of the frame that is shown inside the supplied window of the
+     * preview view, e.g. the crop frame of a {@link BarcodeCropFocusingProcessor}.  Each frame is
+     * cropped to that region before it is handed to the detector, and the detected barcodes are
+     * moved back into full frame coordinates.  Pass null to scan the whole frame again.
+     * <p/>
+     * Cropping requires a processor set with {@link Builder#setProcessor(Detector.Processor)},
+     * since the results have to be translated before they are processed.
+     *
+     * @param window     the scan window in view coordinates, or null
+     * @param viewWidth  the width of the view showing the whole preview
+     * @param viewHeight the height of the view showing the whole preview
+     */
+    public void setScanWindow(@Nullable Rect window, int viewWidth, int viewHeight) {
+        if (window != null && mProcessor == null) {
+            Log.w(TAG, "Scan window ignored, cropping requires a processor set on the builder.");
+            return;
+        }
+        if (window != null && (window.isEmpty() || viewWidth <= 0 || viewHeight <= 0)) {
+            throw new IllegalArgumentException("Invalid scan window: " + window);
+        }
+        mScanWindow = (window != null) ? new ScanWindow(window, viewWidth, viewHeight) : null;
+    }
+
+    /**
+     * Returns the number of frames the sharpness gate kept from the detector, or 0 if the gate is
+     * disabled.
+     */
+    public long getSharpnessGatedFrameCount() {
+        return (mSharpnessGate != null) ? mSharpnessGate.getGatedCount() : 0;
+    }
+
+    /**
+     * Returns the number of frames the sharpness gate let through to the detector, or 0 if the
+     * gate is disabled.
+     */
+    public long getSharpnessPassedFrameCount() {
+        return (mSharpnessGate != null) ? mSharpnessGate.getPassedCount() : 0;
+    }
+
+    /**
+     * Returns the number of frames skipped because the scene didn't change since the last frame
+     * without detections, or 0 if the static scene gate is disabled.
+     */
+    public long getStaticSceneSkippedFrameCount() {
+        return (mStaticSceneGate != null) ? mStaticSceneGate.getSkippedCount() : 0;
+    }
+
+    /**
+     * Adds a listener receiving preview frames off the frame processing path.  Frames are handed
+     * to the listener on its executor right before detection, as {@link FrameLease}s that keep the
+     * buffer from the camera until released.  A slow listener never delays detection: frames
+     * it can't keep up with are dropped according to the options.
+     * <p/>
+     * Frames only reach the listeners when a detection worker picks them up, so frames superseded
+     * while all workers are busy are not seen.  Camera2 frames are not handed to listeners.
+     */
+    public void addFrameListener(FrameLeaseListener listener, FrameListenerOptions options) {
+        synchronized (mFrameListenerLock) {
+            FrameListenerDispatcher[] dispatchers = mFrameListenerDispatchers;
+            FrameListenerDispatcher[] added = new FrameListenerDispatcher[dispatchers.length + 1];
+            System.arraycopy(dispatchers, 0, added, 0, dispatchers.length);
+            added[dispatchers.length] = new FrameListenerDispatcher(listener, options);
+            mFrameListenerDispatchers = added;
+        }
+    }
+
+    /**
+     * Removes a listener added with {@link #addFrameListener}.  Frames still waiting for it are
+     * released; leases it already got must still be released by the listener.
+     */
+    public void removeFrameListener(FrameLeaseListener listener) {
+        synchronized (mFrameListenerLock) {
+            FrameListenerDispatcher[] dispatchers = mFrameListenerDispatchers;
+            for (int i = 0; i < dispatchers.length; ++i) {
+                if (dispatchers[i].getListener() != listener) {
+                    continue;
+                }
+                dispatchers[i].close();
+                FrameListenerDispatcher[] removed =
+                        new FrameListenerDispatcher[dispatchers.length - 1];
+                System.arraycopy(dispatchers, 0, removed, 0, i);
+                System.arraycopy(dispatchers, i + 1, removed, i, dispatchers.length - i - 1);
+                mFrameListenerDispatchers = removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames dropped for the given listener because it was busy, or 0 if
+     * the listener isn't added.
+     */
+    public long getDroppedFrameCount(FrameLeaseListener listener) {
+        for (FrameListenerDispatcher dispatcher : mFrameListenerDispatchers) {
+            if (dispatcher.getListener() == listener) {
+                return dispatcher.getDroppedCount();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the latency histograms and frame counters of this camera source.  Hand it to
+     * {@link BarcodeCropFocusingProcessor#setFrameStats(FrameStats)} and
+     * {@link BarcodeTracker#setFrameStats(FrameStats)} to also record the stages after the
+     * detector.
+     */
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
+    /**
+     * Returns a snapshot of the per stage latencies and frame counters, see
+     * {@link #getFrameStats()}.
+     */
+    public FrameStats.Snapshot getFrameStatsSnapshot() {
+        return mFrameStats.snapshot();
+    }
+
+    /**
+     * Returns a snapshot of the preview buffer pool.
+     */
+    public BufferPoolStats getBufferPoolStats() {
+        return mFrameBufferPool.getStats();
+    }
+
     /**
      * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
      * {@link #CAMERA_FACING_FRONT}.
@@ -507,8 +1243,17 @@ public class CameraSource {
         mFacing = facing;
     }
 
+    /**
+     * Zooms in for a scale above 1 and out for a scale below 1.
+     *
+     * @return the new zoom level, from 0 up to the maximum zoom of camera1, or up to
+     * {@code 100} with the camera2 backend
+     */
     public int doZoom(float scale) {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                return mCamera2Session.zoom(scale);
+            }
             if (mCamera == null) {
                 return 0;
             }
@@ -551,6 +1296,10 @@ public class CameraSource {
      */
     public void takePicture(ShutterCallback shutter, PictureCallback jpeg) {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                Log.w(TAG, "Taking pictures is not supported with the camera2 backend.");
+                return;
+            }
             if (mCamera != null) {
                 PictureStartCallback startCallback = new PictureStartCallback();
                 startCallback.mDelegate = shutter;
@@ -590,6 +1339,13 @@ public class CameraSource {
      */
     public boolean setFocusMode(@FocusMode String mode) {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null && mode != null) {
+                if (mCamera2Session.setFocusMode(mode)) {
+                    mFocusMode = mode;
+                    return true;
+                }
+                return false;
+            }
             if (mCamera != null && mode != null) {
                 Camera.Parameters parameters = mCamera.getParameters();
                 if (parameters.getSupportedFocusModes().contains(mode)) {
@@ -630,6 +1386,13 @@ public class CameraSource {
      */
     public boolean setFlashMode(@FlashMode String mode) {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null && mode != null) {
+                if (mCamera2Session.setFlashMode(mode)) {
+                    mFlashMode = mode;
+                    return true;
+                }
+                return false;
+            }
             if (mCamera != null && mode != null) {
                 Camera.Parameters parameters = mCamera.getParameters();
                 if (parameters.getSupportedFlashModes().contains(mode)) {
@@ -644,6 +1407,32 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Sets the exposure compensation, in the exposure compensation steps of the camera.
+     *
+     * @param value the exposure compensation index, 0 for no compensation
+     * @return {@code true} if the value is within the range supported by the camera,
+     * {@code false} otherwise
+     */
+    public boolean setExposureCompensation(int value) {
+        synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                return mCamera2Session.setExposureCompensation(value);
+            }
+            if (mCamera != null) {
+                Camera.Parameters parameters = mCamera.getParameters();
+                if (value >= parameters.getMinExposureCompensation()
+                        && value <= parameters.getMaxExposureCompensation()) {
+                    parameters.setExposureCompensation(value);
+                    mCamera.setParameters(parameters);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
     /**
      * Starts camera auto-focus and registers a callback function to run when
      * the camera is focused.  This method is only valid when preview is active
@@ -664,6 +1453,9 @@ public class CameraSource {
      */
     public void autoFocus(@Nullable AutoFocusCallback cb) {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                mCamera2Session.autoFocus(cb);
+            }
             if (mCamera != null) {
                 CameraAutoFocusCallback autoFocusCallback = null;
                 if (cb != null) {
@@ -685,6 +1477,9 @@ public class CameraSource {
      */
     public void cancelAutoFocus() {
         synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                mCamera2Session.cancelAutoFocus();
+            }
             if (mCamera != null) {
                 mCamera.cancelAutoFocus();
             }
@@ -704,6 +1499,9 @@ public class CameraSource {
         }
 
         synchronized (mCameraLock) {
+            if (mCamera2Session != null) {
+                return false;
+            }
             if (mCamera != null) {
                 CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
                 if (cb != null) {
@@ -808,20 +1606,23 @@ public class CameraSource {
             throw new CameraNullPointerException();
         }
 
-        SizePair sizePair = selectSizePair(camera, mRequestedPreviewWidth, mRequestedPreviewHeight);
+        Camera.Parameters parameters = camera.getParameters();
+        CameraCapabilities capabilities = mCapabilityCacheEnabled
+                ? CameraCapabilityCache.getInstance(mContext).get(requestedCameraId, parameters)
+                : CameraCapabilities.probe(parameters);
+
+        SizePair sizePair = selectSizePair(capabilities, mRequestedPreviewWidth, mRequestedPreviewHeight);
         if (sizePair == null) {
             throw new RuntimeException("Could not find suitable preview size.");
         }
         Size pictureSize = sizePair.pictureSize();
         mPreviewSize = sizePair.previewSize();
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, mRequestedFps);
+        int[] previewFpsRange = selectPreviewFpsRange(capabilities, mRequestedFps);
         if (previewFpsRange == null) {
             throw new RuntimeException("Could not find suitable preview frames per second range.");
         }
 
-        Camera.Parameters parameters = camera.getParameters();
-
         if (pictureSize != null) {
             parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
         }
@@ -835,8 +1636,7 @@ public class CameraSource {
         setRotation(camera, parameters, requestedCameraId);
 
         if (mFocusMode != null) {
-            if (parameters.getSupportedFocusModes().contains(
-                    mFocusMode)) {
+            if (capabilities.isFocusModeSupported(mFocusMode)) {
                 parameters.setFocusMode(mFocusMode);
             } else {
                 Log.i(TAG, "Camera focus mode: " + mFocusMode + " is not supported on this device.");
@@ -847,9 +1647,8 @@ public class CameraSource {
         mFocusMode = parameters.getFocusMode();
 
         if (mFlashMode != null) {
-            if (parameters.getSupportedFlashModes() != null) {
-                if (parameters.getSupportedFlashModes().contains(
-                        mFlashMode)) {
+            if (capabilities.hasFlash()) {
+                if (capabilities.isFlashModeSupported(mFlashMode)) {
                     parameters.setFlashMode(mFlashMode);
                 } else {
                     Log.i(TAG, "Camera flash mode: " + mFlashMode + " is not supported on this device.");
@@ -857,8 +1656,14 @@ public class CameraSource {
             }
         }
 
-        if (!TextUtils.isEmpty(mISO))
+        if (!TextUtils.isEmpty(mISO)) {
             parameters.set("iso-speed", mISO);
+            // 벤더 키는 그 키가 알려준 값 목록에 있는 경우에만 사용
+            String isoKey = capabilities.getIsoKey(mISO);
+            if (isoKey != null && !"iso-speed".equals(isoKey)) {
+                parameters.set(isoKey, mISO);
+            }
+        }
 
         // setting mFlashMode to the one set in the params
         mFlashMode = parameters.getFlashMode();
@@ -870,16 +1675,13 @@ public class CameraSource {
 
         camera.setParameters(parameters);
 
-        // Four frame buffers are needed for working with the camera:
+        // At least three frame buffers are needed for working with the camera:
         //
         //   one for the frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
+        //   the rest for the frames that the camera uses to populate future preview images
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        mFrameBufferPool.attach(camera, mPreviewSize);
 
         return camera;
     }
@@ -909,31 +1711,35 @@ public class CameraSource {
      * ratio.  On some hardware, if you would only set the preview size, you will get a distorted
      * image.
      *
-     * @param camera        the camera to select a preview size from
+     * @param capabilities  the capabilities of the camera to select a preview size for, holding
+     *                      the preview sizes already paired with picture sizes
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
      * @return the selected preview and picture size pair
      */
-    private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
-
+    private static SizePair selectSizePair(CameraCapabilities capabilities, int desiredWidth,
+                                           int desiredHeight) {
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
         // only way to select the best size, but it provides a decent tradeoff between using the
         // closest aspect ratio vs. using the closest pixel area.
-        SizePair selectedPair = null;
+        int selectedIndex = -1;
         int minDiff = Integer.MAX_VALUE;
-        for (SizePair sizePair : validPreviewSizes) {
-            Size size = sizePair.previewSize();
+        for (int i = 0; i < capabilities.getPreviewSizeCount(); ++i) {
+            Size size = capabilities.getPreviewSize(i);
             int diff = Math.abs(size.getWidth() - desiredWidth) +
                     Math.abs(size.getHeight() - desiredHeight);
             if (diff < minDiff) {
-                selectedPair = sizePair;
+                selectedIndex = i;
                 minDiff = diff;
             }
         }
 
-        return selectedPair;
+        if (selectedIndex == -1) {
+            return null;
+        }
+        return new SizePair(capabilities.getPreviewSize(selectedIndex),
+                capabilities.getPictureSize(selectedIndex));
     }
 
     /**
@@ -946,12 +1752,9 @@ public class CameraSource {
         private Size mPreview;
         private Size mPicture;
 
-        public SizePair(Camera.Size previewSize,
-                        Camera.Size pictureSize) {
-            mPreview = new Size(previewSize.width, previewSize.height);
-            if (pictureSize != null) {
-                mPicture = new Size(pictureSize.width, pictureSize.height);
-            }
+        public SizePair(Size previewSize, Size pictureSize) {
+            mPreview = previewSize;
+            mPicture = pictureSize;
         }
 
         public Size previewSize() {
@@ -964,60 +1767,16 @@ public class CameraSource {
         }
     }
 
-    /**
-     * Generates a list of acceptable preview sizes.  Preview sizes are not acceptable if there is
-     * not a corresponding picture size of the same aspect ratio.  If there is a corresponding
-     * picture size of the same aspect ratio, the picture size is paired up with the preview size.
-     * <p/>
-     * This is necessary because even if we don't use still pictures, the still picture size must be
-     * set to a size that is the same aspect ratio as the preview size we choose.  Otherwise, the
-     * preview images may be distorted on some devices.
-     */
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        List<Camera.Size> supportedPreviewSizes =
-                parameters.getSupportedPreviewSizes();
-        List<Camera.Size> supportedPictureSizes =
-                parameters.getSupportedPictureSizes();
-        List<SizePair> validPreviewSizes = new ArrayList<>();
-        for (Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
-
-            // By looping through the picture sizes in order, we favor the higher resolutions.
-            // We choose the highest resolution in order to support taking the full resolution
-            // picture later.
-            for (Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
-                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
-                    validPreviewSizes.add(new SizePair(previewSize, pictureSize));
-                    break;
-                }
-            }
-        }
-
-        // If there are no picture sizes with the same aspect ratio as any preview sizes, allow all
-        // of the preview sizes and hope that the camera can handle it.  Probably unlikely, but we
-        // still account for it.
-        if (validPreviewSizes.size() == 0) {
-            Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
-            for (Camera.Size previewSize : supportedPreviewSizes) {
-                // The null picture size will let us know that we shouldn't set a picture size.
-                validPreviewSizes.add(new SizePair(previewSize, null));
-            }
-        }
-
-        return validPreviewSizes;
-    }
-
     /**
      * Selects the most suitable preview frames per second range, given the desired frames per
      * second.
      *
-     * @param camera            the camera to select a frames per second range from
+     * @param capabilities      the capabilities of the camera to select a frames per second
+     *                          range for
      * @param desiredPreviewFps the desired frames per second for the camera preview frames
      * @return the selected preview frames per second range
      */
-    private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+    private int[] selectPreviewFpsRange(CameraCapabilities capabilities, float desiredPreviewFps) {
         // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
@@ -1029,7 +1788,7 @@ public class CameraSource {
         // range (15, 30).
         int[] selectedFpsRange = null;
         int minDiff = Integer.MAX_VALUE;
-        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        List<int[]> previewFpsRangeList = capabilities.getFpsRanges();
         for (int[] range : previewFpsRangeList) {
             int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
             int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
@@ -1050,26 +1809,7 @@ public class CameraSource {
      * @param cameraId   the camera id to set rotation based on
      */
     private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
-        WindowManager windowManager =
-                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
-        int degrees = 0;
-        int rotation = windowManager.getDefaultDisplay().getRotation();
-        switch (rotation) {
-            case Surface.ROTATION_0:
-                degrees = 0;
-                break;
-            case Surface.ROTATION_90:
-                degrees = 90;
-                break;
-            case Surface.ROTATION_180:
-                degrees = 180;
-                break;
-            case Surface.ROTATION_270:
-                degrees = 270;
-                break;
-            default:
-                Log.e(TAG, "Bad rotation value: " + rotation);
-        }
+        int degrees = getDisplayRotationDegrees();
 
         CameraInfo cameraInfo = new CameraInfo();
         Camera.getCameraInfo(cameraId, cameraInfo);
@@ -1092,32 +1832,30 @@ public class CameraSource {
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
-     *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * Returns the rotation of the default display in degrees.
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
-        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
-        long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-        //
-        // NOTICE: This code only works when using play services v. 8.1 or higher.
-        //
-
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+    private int getDisplayRotationDegrees() {
+        WindowManager windowManager =
+                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = 0;
+        int rotation = windowManager.getDefaultDisplay().getRotation();
+        switch (rotation) {
+            case Surface.ROTATION_0:
+                degrees = 0;
+                break;
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                Log.e(TAG, "Bad rotation value: " + rotation);
         }
-
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+        return degrees;
     }
 
     //==============================================================================================
@@ -1130,60 +1868,63 @@ public class CameraSource {
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
+            long startNanos = System.nanoTime();
+            mFrameStats.onFrameDelivered(startNanos);
             if (null != mFrameListener)
                 mFrameListener.onFrame(data, camera);
 
-            mFrameProcessor.setNextFrame(data, camera);
+            mFrameHandoff.setNextFrame(data);
+            mFrameStats.recordSince(FrameStats.Stage.PREVIEW_CALLBACK, startNanos);
         }
     }
 
     /**
-     * This runnable controls access to the underlying receiver, calling it to process frames when
-     * available from the camera.  This is designed to run detection on frames as fast as possible
-     * (i.e., without unnecessary context switching or waiting on the next frame).
+     * Hands frames from the camera over to the detection workers.  While detection is running,
+     * new frames may be received from the camera.  As these frames come in, the most recent frame
+     * is held onto as pending, and frames that are superseded before a worker picked them up are
+     * returned to the camera right away.
      * <p/>
-     * While detection is running on a frame, new frames may be received from the camera.  As these
-     * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
-     * associated processing are done for the previous frame, detection on the mostly recently
-     * received frame will immediately start on the same thread.
+     * The pending frame is a single atomic slot: the camera thread swaps the new frame in and the
+     * workers swap it out, so the camera thread never waits for a worker.  Idle workers park
+     * until a frame is published, and are unparked by the camera thread.
      */
-    private class FrameProcessingRunnable implements Runnable {
-        private Detector<?> mDetector;
+    private class FrameHandoff {
         private long mStartTimeMillis = SystemClock.elapsedRealtime();
 
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
+        private volatile boolean mActive = true;
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
-        private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
+        // The pending slot holds the new frame awaiting processing, along with its metadata.
+        private final AtomicReference<FrameSlot> mPendingFrame = new AtomicReference<>();
 
-        FrameProcessingRunnable(Detector<?> detector) {
-            mDetector = detector;
+        // Only touched by the thread delivering the camera frames.
+        private int mNextFrameId = 0;
+
+        // Worker threads parked while waiting for a frame, by worker index.
+        private final AtomicReferenceArray<Thread> mWaitingWorkers;
+
+        // Replay thread parked until the pending frame is taken, or null.
+        private volatile Thread mWaitingProducer;
+
+        FrameHandoff(int workerCount) {
+            mWaitingWorkers = new AtomicReferenceArray<>(workerCount);
         }
 
         /**
-         * Releases the underlying receiver.  This is only safe to do after the associated thread
-         * has completed, which is managed in camera source's release method above.
+         * Marks the workers as active/not active.  Signals any parked workers to continue.
          */
-        @SuppressLint("Assert")
-        void release() {
-            assert (mProcessingThread.getState() == State.TERMINATED);
-            if (mDetector != null) {
-                mDetector.release();
-                mDetector = null;
-            }
+        void setActive(boolean active) {
+            mActive = active;
+            unparkWorkers();
         }
 
         /**
-         * Marks the runnable as active/not active.  Signals any blocked threads to continue.
+         * Drops the pending frame without handing it back to the camera.  Used once the camera is
+         * stopped, when the buffer pool takes all of its buffers back.
          */
-        void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
+        void clearPendingFrame() {
+            FrameSlot pending = mPendingFrame.getAndSet(null);
+            if (pending != null) {
+                pending.releaseReference();
             }
         }
 
@@ -1192,37 +1933,183 @@ public class CameraSource {
          * (if present) back to the camera, and keeps a pending reference to the frame data for
          * future use.
          */
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
+        void setNextFrame(byte[] data) {
+            // Returning the superseded buffer first leaves the camera one more buffer to fill.
+            FrameSlot superseded = mPendingFrame.getAndSet(null);
+            if (superseded != null) {
+                mFrameStats.onFrameSuperseded();
+                superseded.recycle();
+            }
+
+            FrameSlot slot = mFrameBufferPool.onFrameReceived(data);
+            if (slot == null) {
+                mFrameStats.onUnknownBuffer();
+                Log.d(TAG,
+                    "Skipping frame.  Could not find the buffer slot associated with the image " +
+                    "data from the camera.");
+                return;
+            }
+            publish(slot);
+        }
+
+        /**
+         * Sets a frame received from the camera2 backend, recycling the previous unused frame.
+         */
+        void setNextFrame(FrameSlot slot) {
+            publish(slot);
+        }
+
+        /**
+         * Sets a replayed frame, which keeps its recorded timestamp and rotation.  Waits until the
+         * previous frame has been taken by a worker, so that no frame is superseded.
+         */
+        void setReplayedFrame(FrameSlot slot) throws InterruptedException {
+            // Announce the wait before checking, like the workers do in takeNextFrame().
+            mWaitingProducer = Thread.currentThread();
+            try {
+                while (mPendingFrame.get() != null) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
                 }
+            } finally {
+                mWaitingProducer = null;
+            }
+            handOver(slot);
+        }
 
-                if (!mBytesToByteBuffer.containsKey(data)) {
-                    Log.d(TAG,
-                        "Skipping frame.  Could not find ByteBuffer associated with the image " +
-                        "data from the camera.");
-                    return;
+        private void publish(FrameSlot slot) {
+            // Timestamp and frame ID are maintained here, which will give downstream code some
+            // idea of the timing of frames received and when frames were dropped along the way.
+            slot.timestampMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+            slot.rotation = mRotation;
+            handOver(slot);
+        }
+
+        private void handOver(FrameSlot slot) {
+            slot.frameId = ++mNextFrameId;
+            slot.handoffNanos = System.nanoTime();
+            slot.retain();
+
+            FrameSlot superseded = mPendingFrame.getAndSet(slot);
+            if (superseded != null) {
+                mFrameStats.onFrameSuperseded();
+                superseded.recycle();
+            }
+
+            // Wake up the workers waiting on the next frame (see below).
+            unparkWorkers();
+        }
+
+        private void unparkWorkers() {
+            for (int i = 0; i < mWaitingWorkers.length(); ++i) {
+                Thread waiting = mWaitingWorkers.get(i);
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
                 }
+            }
+        }
 
-                // Timestamp and frame ID are maintained here, which will give downstream code some
-                // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+        /**
+         * Waits for the next pending frame and takes it for the given worker, registering it for
+         * ordered delivery.  Two workers may register their frames out of order; the delivery then
+         * drops the result of the older frame.
+         *
+         * @return the frame, or null once the workers have been stopped
+         */
+        FrameSlot takeNextFrame(int worker) {
+            Thread current = Thread.currentThread();
+            try {
+                while (true) {
+                    if (!mActive) {
+                        // Exit the loop once this camera source is stopped or released.
+                        return null;
+                    }
+
+                    // Take the frame, so that it isn't recycled back to the camera before we
+                    // are done using that data.
+                    FrameSlot slot = mPendingFrame.getAndSet(null);
+                    if (slot != null) {
+                        mFrameStats.record(FrameStats.Stage.HANDOFF_WAIT,
+                                System.nanoTime() - slot.handoffNanos);
+                        Thread producer = mWaitingProducer;
+                        if (producer != null) {
+                            LockSupport.unpark(producer);
+                        }
+                        if (mDetectionDelivery != null) {
+                            mDetectionDelivery.begin(worker, slot);
+                        }
+                        return slot;
+                    }
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                mLock.notifyAll();
+                    // Announce the wait before checking again, so that a frame published in
+                    // between unparks this worker instead of being missed.
+                    if (mWaitingWorkers.get(worker) == null) {
+                        mWaitingWorkers.set(worker, current);
+                        continue;
+                    }
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        Log.d(TAG, "Frame processing loop terminated.");
+                        return null;
+                    }
+                }
+            } finally {
+                mWaitingWorkers.set(worker, null);
+            }
+        }
+    }
+
+    /**
+     * This runnable controls access to the underlying receiver, calling it to process frames when
+     * available from the camera.  This is designed to run detection on frames as fast as possible
+     * (i.e., without unnecessary context switching or waiting on the next frame).
+     * <p/>
+     * As soon as detection and its associated processing are done for the previous frame,
+     * detection on the mostly recently received frame will immediately start on the same thread.
+     * With several detection workers, each worker runs this loop on its own thread with its own
+     * detector, and the results are handed to the processor in frame order.
+     */
+    private class FrameProcessingRunnable implements Runnable {
+        private final int mWorker;
+        private Detector<?> mDetector;
+
+        // Scratch row used to mirror front camera frames in place.  Only touched by the
+        // processing thread.
+        private byte[] mMirrorRowBuffer;
+
+        private final ScanWindowCrop mScanWindowCrop = new ScanWindowCrop();
+        private final DecodePyramid mDecodePyramid;
+
+        // Luma thumbnail of the current frame, for the static scene gate.
+        private final byte[] mThumbnail = new byte[StaticSceneGate.THUMBNAIL_SIZE];
+
+        FrameProcessingRunnable(int worker, Detector<?> detector) {
+            mWorker = worker;
+            mDetector = detector;
+            mDecodePyramid =
+                    (mDecodePyramidStats != null) ? new DecodePyramid(mDecodePyramidStats) : null;
+        }
+
+        /**
+         * Releases the underlying receiver.  This is only safe to do after the associated thread
+         * has completed, which is managed in camera source's release method above.
+         */
+        @SuppressLint("Assert")
+        void release() {
+            assert (mProcessingThreads == null);
+            if (mDetector != null) {
+                mDetector.release();
+                mDetector = null;
             }
         }
 
         /**
          * As long as the processing thread is active, this executes detection on frames
          * continuously.  The next pending frame is either immediately available or hasn't been
-         * received yet.  Once it is available, we transfer the frame info to local variables and
-         * run detection on that frame.  It immediately loops back for the next frame without
-         * pausing.
+         * received yet.  Once it is available, we run detection on that frame.  It immediately
+         * loops back for the next frame without pausing.
          * <p/>
          * If detection takes longer than the time in between new frames from the camera, this will
          * mean that this loop will run without ever waiting on a frame, avoiding any context
@@ -1233,87 +2120,160 @@ public class CameraSource {
          */
         @Override
         public void run() {
-            Frame outputFrame;
-            ByteBuffer data;
-
             while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
+                if (mDetectionDelivery != null) {
+                    try {
+                        mDetectionDelivery.awaitIdle(mWorker);
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, "Frame processing loop terminated.", e);
+                        return;
                     }
+                }
 
-                    if (!mActive) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
+                FrameSlot slot = mFrameHandoff.takeNextFrame(mWorker);
+                if (slot == null) {
+                    return;
+                }
+                long buildStartNanos = System.nanoTime();
+
+                // The code below runs outside of synchronization, because this will allow the
+                // camera to add pending frame(s) while we are running detection on the current
+                // frame.
+
+                // Camera2 frames wrap an image plane without an array, so the stages working on
+                // the NV21 pixels below are skipped for them.
+                if (slot.data != null && getCameraFacing() == CAMERA_FACING_FRONT) {
+                    // 좌우 반전 : Vision Library 10 버전 부터 좌우 반전된 QR코드 인식 지원. elemark 2 탑 카메라는 FRONT_CAMERA로 인식되어
+                    // 라이브러리에서 좌우 반전을 해서 처리하고 있는 것으로 판단되어 라이브러리에 좌우 반전을 시켜 넘겨 주어 문제를 해결
+                    // The buffer belongs to us until it is handed back to the camera, so the
+                    // NV21 planes are flipped in place instead of going through a JPEG bitmap.
+                    if (mMirrorRowBuffer == null || mMirrorRowBuffer.length < slot.width) {
+                        mMirrorRowBuffer = new byte[slot.width];
+                    }
+                    Nv21Utils.mirrorVertically(slot.data, slot.width, slot.height, mMirrorRowBuffer);
+                }
+
+                if (slot.data != null) {
+                    for (FrameListenerDispatcher dispatcher : mFrameListenerDispatchers) {
+                        dispatcher.offer(slot);
                     }
+                }
 
-                    if (getCameraFacing() == CAMERA_FACING_FRONT) {
-                        YuvImage yuvImage = new YuvImage(mPendingFrameData.array(), ImageFormat.NV21, mPreviewSize.getWidth(),
-                                mPreviewSize.getHeight(), null);
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        yuvImage.compressToJpeg(new Rect(0, 0, mPreviewSize.getWidth(), mPreviewSize.getHeight()), 100, outputStream); // Where 100 is the quality of the generated jpeg
-                        byte[] rawImage = outputStream.toByteArray();
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(rawImage, 0, rawImage.length);
-
-                        // 비트맵 좌우 반전 : Vision Library 10 버전 부터 좌우 반전된 QR코드 인식 지원. elemark 2 탑 카메라는 FRONT_CAMERA로 인식되어
-                        // 라이브러리에서 좌우 반전을 해서 처리하고 있는 것으로 판단되어 라이브러리에 좌우 반전을 시켜 넘겨 주어 문제를 해결
-                        Matrix matrix = new Matrix();
-                        matrix.postScale(1, -1, mPreviewSize.getWidth() / 2, mPreviewSize.getHeight() / 2);
-                        Bitmap flippedBitmap = Bitmap.createBitmap(bitmap, 0, 0, mPreviewSize.getWidth(), mPreviewSize.getHeight(), matrix, true);
-                        bitmap.recycle();
-
-                        outputFrame = new Frame.Builder()
-                                .setBitmap(flippedBitmap)
-                                .setId(mPendingFrameId)
-                                .setTimestampMillis(mPendingTimeMillis)
-                                .setRotation(mRotation)
-                                .build();
+                Frame frame = slot.buildFrame();
+                mFrameStats.recordSince(FrameStats.Stage.FRAME_BUILD, buildStartNanos);
+                if (!passesGates(slot)) {
+                    if (mDetectionDelivery == null) {
+                        slot.recycle();
                     } else {
-                        outputFrame = new Frame.Builder()
-                                .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                        mPreviewSize.getHeight(), ImageFormat.NV21)
-                                .setId(mPendingFrameId)
-                                .setTimestampMillis(mPendingTimeMillis)
-                                .setRotation(mRotation)
-                                .build();
+                        // Nothing is delivered for a skipped frame, the slot is just returned.
+                        mDetectionDelivery.complete(mWorker, frame, null, true);
                     }
+                    continue;
+                }
 
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
+                // Without a processor of our own, this also covers the processor and tracker of
+                // the detector.
+                long detectStartNanos = System.nanoTime();
+                if (mDetectionDelivery == null) {
+                    try {
+                        mDetector.receiveFrame(frame);
+                    } catch (Throwable t) {
+                        Log.e(TAG, "Exception thrown from receiver.", t);
+                    } finally {
+                        mFrameStats.recordSince(FrameStats.Stage.RECEIVE_FRAME, detectStartNanos);
+                        mFrameStats.onFrameProcessed();
+                        slot.recycle();
+                    }
+                } else {
+                    SparseArray<?> results = null;
+                    try {
+                        ScanWindow window = mScanWindow;
+                        Frame croppedFrame = (window != null && slot.data != null)
+                                ? mScanWindowCrop.crop(slot, window) : null;
+                        if (croppedFrame != null) {
+                            results = detect(croppedFrame, mScanWindowCrop.getCropData(),
+                                    mScanWindowCrop.getCropWidth(),
+                                    mScanWindowCrop.getCropHeight());
+                            mScanWindowCrop.translateResults(results);
+                        } else {
+                            results = detect(frame, slot.data, slot.width, slot.height);
+                        }
+                        if (mStaticSceneGate != null && slot.data != null) {
+                            mStaticSceneGate.onDetected(mThumbnail, results.size() == 0,
+                                    slot.timestampMillis);
+                        }
+                    } catch (Throwable t) {
+                        Log.e(TAG, "Exception thrown from detector.", t);
+                    } finally {
+                        mFrameStats.recordSince(FrameStats.Stage.RECEIVE_FRAME, detectStartNanos);
+                        mFrameStats.onFrameProcessed();
+                        // Hands the slot back to the camera once the result is delivered.
+                        mDetectionDelivery.complete(
+                                mWorker, frame, results, mDetector.isOperational());
+                    }
                 }
+            }
+        }
 
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
+        /**
+         * Returns whether the frame is worth running detection on.
+         */
+        private boolean passesGates(FrameSlot slot) {
+            if (slot.data == null || (mSharpnessGate == null && mStaticSceneGate == null)) {
+                return true;
+            }
 
-                try {
-                    mDetector.receiveFrame(outputFrame);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    mCamera.addCallbackBuffer(data.array());
+            // Both gates look at the scan window only, if there is one.
+            ScanWindow window = mScanWindow;
+            int[] region = (window != null) ? mScanWindowCrop.getSensorRect(slot, window) : null;
+            int left = (region != null) ? region[FrameGeometry.LEFT] : 0;
+            int top = (region != null) ? region[FrameGeometry.TOP] : 0;
+            int right = (region != null) ? region[FrameGeometry.RIGHT] : slot.width;
+            int bottom = (region != null) ? region[FrameGeometry.BOTTOM] : slot.height;
+
+            if (mStaticSceneGate != null) {
+                StaticSceneGate.thumbnail(slot.data, slot.width, left, top, right, bottom,
+                        mThumbnail);
+                if (!mStaticSceneGate.accept(mThumbnail, slot.timestampMillis)) {
+                    return false;
+                }
+            }
+            if (mSharpnessGate != null) {
+                float score = LumaStats.sharpness(slot.data, slot.width, left, top, right, bottom);
+                if (!mSharpnessGate.accept(score)) {
+                    return false;
                 }
             }
+            return true;
+        }
+
+        /**
+         * Runs the detector on the supplied NV21 image, which is also wrapped by the frame.
+         */
+        private SparseArray<?> detect(Frame frame, byte[] data, int width, int height) {
+            if (mDecodePyramid != null && data != null) {
+                return mDecodePyramid.detect(mDetector, frame, data, width, height);
+            }
+            return mDetector.detect(frame);
         }
     }
 
+    /**
+     * Returns the listener called synchronously for every camera1 preview frame.
+     *
+     * @see #addFrameListener(FrameLeaseListener, FrameListenerOptions)
+     */
     public CameraFrameListener getmFrameListener() {
         return mFrameListener;
     }
 
+    /**
+     * Sets a listener called synchronously on the camera thread for every camera1 preview frame,
+     * before the frame is handed to the detector.  The buffer goes back to the camera right after
+     * detection, so the listener must not keep it.  A slow listener delays detection; prefer
+     * {@link #addFrameListener(FrameLeaseListener, FrameListenerOptions)} for anything but
+     * trivial work.
+     */
     public void setmFrameListener(CameraFrameListener mFrameListener) {
         this.mFrameListener = mFrameListener;
     }
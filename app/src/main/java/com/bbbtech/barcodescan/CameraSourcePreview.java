@@ -41,11 +41,21 @@ public class CameraSourcePreview extends ViewGroup {
     private CameraSource mCameraSource;
     private CameraSourcePreviewListener listener;
     private CameraSourcePreviewCallback mCallback;
+    private CameraStartErrorListener mStartErrorListener;
 
     public interface CameraSourcePreviewListener {
         void onCameraNullPointerException();
     }
 
+    /**
+     * Notified on the main thread when the camera could not be started, with the
+     * {@link IOException} or {@link SecurityException} of the asynchronous start.  The start is
+     * retried once the surface is created or laid out again.
+     */
+    public interface CameraStartErrorListener {
+        void onCameraStartFailed(Exception e);
+    }
+
     public CameraSourcePreview(Context context, AttributeSet attrs) {
         super(context, attrs);
         mContext = context;
@@ -58,6 +68,12 @@ public class CameraSourcePreview extends ViewGroup {
         addView(mSurfaceView);
     }
 
+    /**
+     * Starts the camera once the surface is ready.  The camera is opened asynchronously, so start
+     * failures are reported to the {@link CameraStartErrorListener} and the
+     * {@link CameraSourcePreviewListener} instead of being thrown; the exceptions stay declared for
+     * existing callers.
+     */
     @RequiresPermission(Manifest.permission.CAMERA)
     public void start(CameraSource cameraSource) throws IOException, SecurityException, CameraNullPointerException {
         if (cameraSource == null) {
@@ -72,6 +88,9 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    /**
+     * Like {@link #start(CameraSource)}, choosing the front or the back camera first.
+     */
     @RequiresPermission(Manifest.permission.CAMERA)
     public void start(CameraSource cameraSource, boolean isFacingFront) throws IOException, SecurityException, CameraNullPointerException {
         if (cameraSource == null) {
@@ -109,15 +128,22 @@ public class CameraSourcePreview extends ViewGroup {
         mCallback = callback;
     }
 
+    public void setStartErrorListener(CameraStartErrorListener listener) {
+        mStartErrorListener = listener;
+    }
+
+    /**
+     * Starts the camera on the camera thread of the camera source, so that opening the camera
+     * doesn't block the UI.  The preview size callback follows once the camera is running.  A
+     * start failing with an {@link IOException} or {@link SecurityException} stays requested, so
+     * that the next surface creation or layout tries again.
+     */
     @RequiresPermission(Manifest.permission.CAMERA)
-    private void startIfReady() throws IOException, SecurityException, CameraNullPointerException {
+    private void startIfReady() {
         if (mStartRequested && mSurfaceAvailable && mCameraAvailable) {
             if (mCameraSource != null) {
-                mCameraSource.start(mSurfaceView.getHolder());
-                if (mCameraSource != null && mCameraSource.getPreviewSize() != null && mCallback != null) {
-                    mCallback.onCameraPreviewSizeDetermined(mCameraSource.getPreviewSize());
-                }
                 mStartRequested = false;
+                mCameraSource.startAsync(mSurfaceView.getHolder(), new PreviewStartCallback());
             } else {
                 // 카메라 하드웨어에 이상이 생긴 경우
                 showCameraModuleError();
@@ -125,29 +151,51 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
-    private class SurfaceCallback implements SurfaceHolder.Callback {
+    private class PreviewStartCallback implements CameraSource.StartCallback {
         @Override
-        public void surfaceCreated(SurfaceHolder surface) {
-            mSurfaceAvailable = true;
-            try {
-                //noinspection MissingPermission
-                startIfReady();
-            } catch (SecurityException se) {
-                Log.e(TAG, "Do not have permission to start the camera", se);
-            } catch (IOException e) {
-                Log.e(TAG, "Could not start camera source.", e);
-            } catch (CameraNullPointerException e) {
+        public void onStarted(Size previewSize) {
+            if (mCallback != null) {
+                mCallback.onCameraPreviewSizeDetermined(previewSize);
+            }
+            // The layout depends on the aspect ratio of the preview size.
+            requestLayout();
+        }
+
+        @Override
+        public void onStartFailed(Exception e) {
+            if (e instanceof SecurityException || e instanceof IOException) {
+                if (e instanceof SecurityException) {
+                    Log.e(TAG, "Do not have permission to start the camera", e);
+                } else {
+                    Log.e(TAG, "Could not start camera source.", e);
+                }
+                if (mCameraSource != null) {
+                    mStartRequested = true;
+                }
+                if (mStartErrorListener != null) {
+                    mStartErrorListener.onCameraStartFailed(e);
+                }
+            } else if (e instanceof CameraNullPointerException) {
                 Log.e(TAG, "Could not start camera source because of specific permission issues", e);
                 if (listener != null) {
                     listener.onCameraNullPointerException();
                 }
                 mCameraAvailable = false;
-            } catch (RuntimeException e) {
+            } else {
                 // 카메라 하드웨어에 문제가 있을 때 여기로 빠짐
                 showCameraModuleError();
                 release();
             }
         }
+    }
+
+    private class SurfaceCallback implements SurfaceHolder.Callback {
+        @Override
+        public void surfaceCreated(SurfaceHolder surface) {
+            mSurfaceAvailable = true;
+            //noinspection MissingPermission
+            startIfReady();
+        }
 
         @Override
         public void surfaceDestroyed(SurfaceHolder surface) {
@@ -196,17 +244,8 @@ public class CameraSourcePreview extends ViewGroup {
             getChildAt(i).layout(0, 0, childWidth, childHeight);
         }
 
-        try {
-            //noinspection MissingPermission
-            startIfReady();
-        } catch (SecurityException se) {
-            Log.e(TAG,"Do not have permission to start the camera", se);
-        } catch (IOException e) {
-            Log.e(TAG, "Could not start camera source.", e);
-        } catch (CameraNullPointerException e) {
-            Log.e(TAG, "Could not start camera source because of specific permission issues", e);
-            mCameraAvailable = false;
-        }
+        //noinspection MissingPermission
+        startIfReady();
     }
 
     private boolean isPortraitMode() {
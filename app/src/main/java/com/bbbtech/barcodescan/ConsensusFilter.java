@@ -0,0 +1,108 @@
+package com.bbbtech.barcodescan;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Accepts a barcode value only once it was read in enough of the latest frames, see
+ * {@link BarcodeTracker#setConsensus(int, int, int)}.
+ * <p/>
+ * Votes are kept in a small table allocated up front, one entry per format and raw value, with a
+ * bit per frame of the window in which the value was read.  The table is searched linearly; a new
+ * value takes over an entry whose votes have all left the window, or else the entry read longest
+ * ago.  Frames are numbered by their metadata id, which increases by one per camera frame, so
+ * frames without any read still move the window.  Votes are counted on the delivery thread,
+ * while {@link #clear()} may be called from any thread.
+ */
+final class ConsensusFilter {
+
+    static final int MAX_WINDOW_FRAMES = 64;
+
+    private static final int TABLE_SIZE = 32;
+
+    private final int mVotes;
+    private final int mSingleReadFormats;
+    private final int mWindowFrames;
+    private final long mWindowMask;
+
+    private final int[] mFormats = new int[TABLE_SIZE];
+    private final String[] mValues = new String[TABLE_SIZE];
+    private final long[] mReadMasks = new long[TABLE_SIZE];
+    private final int[] mLastFrames = new int[TABLE_SIZE];
+
+    ConsensusFilter(int votes, int windowFrames, int singleReadFormats) {
+        if (windowFrames < 1 || windowFrames > MAX_WINDOW_FRAMES) {
+            throw new IllegalArgumentException("Invalid consensus window: " + windowFrames);
+        }
+        if (votes < 1 || votes > windowFrames) {
+            throw new IllegalArgumentException("Invalid consensus vote count: " + votes);
+        }
+        mVotes = votes;
+        mWindowFrames = windowFrames;
+        mWindowMask = (windowFrames == 64) ? -1L : (1L << windowFrames) - 1;
+        mSingleReadFormats = singleReadFormats;
+    }
+
+    /**
+     * Counts a read of the given barcode in the given frame, and returns whether the value now
+     * has enough votes.  Reading a value twice in the same frame counts once.
+     */
+    synchronized boolean vote(Barcode barcode, int frameId) {
+        if ((barcode.format & mSingleReadFormats) != 0 || mVotes == 1) {
+            return true;
+        }
+        String value = barcode.rawValue != null ? barcode.rawValue : "";
+
+        int entry = -1;
+        int replaced = -1;
+        int replacedAge = -1;
+        for (int i = 0; i < TABLE_SIZE; ++i) {
+            if (mValues[i] == null) {
+                if (replacedAge < Integer.MAX_VALUE) {
+                    replaced = i;
+                    replacedAge = Integer.MAX_VALUE;
+                }
+                continue;
+            }
+            if (mFormats[i] == barcode.format && mValues[i].equals(value)) {
+                entry = i;
+                break;
+            }
+            int age = frameId - mLastFrames[i];
+            if (age >= mWindowFrames || age < 0) {
+                age = Integer.MAX_VALUE;
+            }
+            if (age > replacedAge) {
+                replaced = i;
+                replacedAge = age;
+            }
+        }
+
+        if (entry == -1) {
+            entry = replaced;
+            mFormats[entry] = barcode.format;
+            mValues[entry] = value;
+            mReadMasks[entry] = 0;
+        } else {
+            int shift = frameId - mLastFrames[entry];
+            if (shift < 0 || shift >= mWindowFrames) {
+                // Older than the window, or the frame ids started over.
+                mReadMasks[entry] = 0;
+            } else {
+                mReadMasks[entry] <<= shift;
+            }
+        }
+        mReadMasks[entry] = (mReadMasks[entry] | 1L) & mWindowMask;
+        mLastFrames[entry] = frameId;
+        return Long.bitCount(mReadMasks[entry]) >= mVotes;
+    }
+
+    /**
+     * Forgets every read counted so far.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < TABLE_SIZE; ++i) {
+            mValues[i] = null;
+            mReadMasks[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Two level decode strategy: detection first runs on a half resolution copy of the frame, and
+ * only escalates to the full resolution frame when nothing was found.  Most 1D barcodes held
+ * close to the camera decode fine at half resolution for a quarter of the work, while small
+ * codes still get a full resolution pass.
+ * <p/>
+ * Frames with a barcode tell how well the half resolution pass does: either it found the barcode,
+ * or only the full resolution pass did.  Frames without any barcode say nothing about it and are
+ * not counted, so an empty scene doesn't turn the half resolution pass off.  Once it misses most
+ * barcodes, it is skipped and the frame goes to full resolution directly, apart from an
+ * occasional probe to notice when the low level starts paying off again.
+ * <p/>
+ * One instance is used per detection worker and only touched from its thread.
+ */
+final class DecodePyramid {
+
+    /**
+     * Frames smaller than this in either direction are always decoded at full resolution.
+     */
+    private static final int MIN_LOW_RES_SIZE = 160;
+
+    private final Stats mStats;
+
+    private byte[] mLowResData;
+    private int mLowResWidth;
+    private int mLowResHeight;
+    private Frame.Builder mLowResFrameBuilder;
+
+    DecodePyramid(Stats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Runs detection on the supplied NV21 image, which is also wrapped by {@code frame}.  Results
+     * found at half resolution are scaled back into the coordinates of the supplied frame.
+     */
+    SparseArray<?> detect(Detector<?> detector, Frame frame, byte[] data, int width, int height) {
+        int lowResWidth = Nv21Utils.downscaledSize(width);
+        int lowResHeight = Nv21Utils.downscaledSize(height);
+        if (lowResWidth < MIN_LOW_RES_SIZE || lowResHeight < MIN_LOW_RES_SIZE
+                || !mStats.shouldTryLowRes()) {
+            return detector.detect(frame);
+        }
+
+        if (mLowResData == null || lowResWidth != mLowResWidth || lowResHeight != mLowResHeight) {
+            mLowResData = new byte[Nv21Utils.getBufferSize(lowResWidth, lowResHeight)];
+            mLowResWidth = lowResWidth;
+            mLowResHeight = lowResHeight;
+            mLowResFrameBuilder = new Frame.Builder().setImageData(
+                    ByteBuffer.wrap(mLowResData), lowResWidth, lowResHeight, ImageFormat.NV21);
+        }
+        Nv21Utils.downscale2x(data, width, height, mLowResData);
+
+        Frame.Metadata metadata = frame.getMetadata();
+        Frame lowResFrame = mLowResFrameBuilder
+                .setId(metadata.getId())
+                .setTimestampMillis(metadata.getTimestampMillis())
+                .setRotation(metadata.getRotation())
+                .build();
+        SparseArray<?> results = detector.detect(lowResFrame);
+        if (results.size() > 0) {
+            mStats.recordLowRes(true);
+            scaleResults(results);
+            return results;
+        }
+
+        // Nothing found at half resolution, escalate.
+        results = detector.detect(frame);
+        if (results.size() > 0) {
+            mStats.recordLowRes(false);
+        }
+        return results;
+    }
+
+    private static void scaleResults(SparseArray<?> results) {
+        for (int i = 0; i < results.size(); ++i) {
+            Object item = results.valueAt(i);
+            if (item instanceof Barcode && ((Barcode) item).cornerPoints != null) {
+                for (Point point : ((Barcode) item).cornerPoints) {
+                    point.x *= 2;
+                    point.y *= 2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Success rate of the half resolution pass, shared by all detection workers of a camera
+     * source.
+     */
+    static final class Stats {
+        // Below this success rate the half resolution pass is considered not worth it.
+        private static final float MIN_LOW_RES_SUCCESS_RATE = 0.1f;
+        // Weight of the latest frame in the moving success rate.
+        private static final float SMOOTHING = 1f / 32;
+        // Number of frames with a barcode before the success rate is trusted.
+        private static final int WARM_UP_FRAMES = 32;
+        // While the low level is skipped, every n-th frame still probes it.
+        private static final int PROBE_INTERVAL = 16;
+
+        private long mBarcodeFrames;
+        private long mLowResSkipped;
+        private float mLowResSuccessRate = 1f;
+
+        synchronized boolean shouldTryLowRes() {
+            if (mBarcodeFrames < WARM_UP_FRAMES
+                    || mLowResSuccessRate >= MIN_LOW_RES_SUCCESS_RATE) {
+                return true;
+            }
+            return ++mLowResSkipped % PROBE_INTERVAL == 0;
+        }
+
+        /**
+         * Records a frame in which a barcode was found, by the half resolution pass or else by
+         * the full resolution pass only.
+         */
+        synchronized void recordLowRes(boolean found) {
+            mBarcodeFrames++;
+            mLowResSuccessRate += SMOOTHING * ((found ? 1f : 0f) - mLowResSuccessRate);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.bbbtech.barcodescan;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Barcode detector that learns which formats a deployment actually scans, and only looks for
+ * those.  Most deployments only ever see two or three formats, and a detector restricted to
+ * them spends less time on each frame.
+ * <p/>
+ * Every barcode detected is counted by format into a profile shared by all instances of the
+ * process and saved in shared preferences, so a new session starts out with the formats learned
+ * before.  A barcode held in view is counted once, and again only after it was out of view for
+ * two seconds, so the profile reflects what is scanned rather than for how long.  While too
+ * little is known, all formats are looked for.  Once the profile is confident, frames go to a
+ * detector restricted to the learned formats, which is rebuilt whenever the learned formats
+ * change.
+ * <p/>
+ * So that a new format is still picked up, a frame goes to a detector of all formats after a
+ * number of frames in a row without a barcode, and periodically.  A barcode found that way is
+ * counted like any other and soon becomes part of the learned formats.  Note that ids are those
+ * of the detector that found a barcode, so an item may get a new id when it is found by the
+ * other one.
+ * <p/>
+ * Like any detector it must only be used by one thread at a time; give each detection worker
+ * its own, see {@link CameraSource.Builder#setDetectionWorkers(int,
+ * CameraSource.DetectorFactory)}.  The workers then learn together.
+ */
+public class FormatLearningDetector extends Detector<Barcode> {
+
+    /**
+     * Creates the detectors looking for a set of formats.
+     */
+    public interface FormatDetectorFactory {
+        /**
+         * Returns a new barcode detector looking for the given formats only, e.g. a
+         * {@link com.google.android.gms.vision.barcode.BarcodeDetector} or a
+         * {@link ZxingBarcodeDetector} built with {@code setBarcodeFormats(formats)}.
+         *
+         * @param formats a combination of the {@link Barcode} format flags, or
+         *                {@link Barcode#ALL_FORMATS}
+         */
+        Detector<Barcode> create(int formats);
+    }
+
+    // Time a barcode must be out of view before it is counted again.
+    private static final long SEEN_TTL_MILLIS = 2000;
+    private static final int SEEN_CAPACITY = 64;
+
+    private final FormatDetectorFactory mFactory;
+    private final FormatProfile mProfile;
+    private final int mEmptyFrameLimit;
+    private final int mProbeInterval;
+
+    private final Detector<Barcode> mAllFormatsDetector;
+    private Detector<Barcode> mLearnedDetector;
+    private int mLearnedFormats = Barcode.ALL_FORMATS;
+
+    private final RecognitionDedupeCache mSeen = new RecognitionDedupeCache(SEEN_CAPACITY);
+
+    private int mEmptyFrames;
+    private int mFramesSinceProbe;
+
+    private FormatLearningDetector(Context context, FormatDetectorFactory factory,
+                                   int emptyFrameLimit, int probeInterval) {
+        mFactory = factory;
+        mProfile = FormatProfile.getInstance(context);
+        mEmptyFrameLimit = emptyFrameLimit;
+        mProbeInterval = probeInterval;
+        mAllFormatsDetector = factory.create(Barcode.ALL_FORMATS);
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        int formats = mProfile.getActiveFormats();
+        if (formats != mLearnedFormats) {
+            setLearnedFormats(formats);
+        }
+
+        SparseArray<Barcode> barcodes;
+        if (mLearnedDetector == null) {
+            barcodes = mAllFormatsDetector.detect(frame);
+        } else if (mEmptyFrames >= mEmptyFrameLimit || mFramesSinceProbe >= mProbeInterval) {
+            // 다른 포맷이 새로 쓰이기 시작했는지 전체 포맷으로 한번 확인
+            mEmptyFrames = 0;
+            mFramesSinceProbe = 0;
+            barcodes = mAllFormatsDetector.detect(frame);
+        } else {
+            mFramesSinceProbe++;
+            barcodes = mLearnedDetector.detect(frame);
+            if (barcodes.size() == 0) {
+                mEmptyFrames++;
+            } else {
+                mEmptyFrames = 0;
+            }
+        }
+
+        // A barcode held in view is counted once, not once per frame.
+        long now = frame.getMetadata().getTimestampMillis();
+        for (int i = 0; i < barcodes.size(); ++i) {
+            Barcode barcode = barcodes.valueAt(i);
+            if (barcode != null && !mSeen.checkAndRefresh(barcode, now, SEEN_TTL_MILLIS)) {
+                mProfile.record(barcode.format);
+            }
+        }
+        return barcodes;
+    }
+
+    /**
+     * Returns the formats currently looked for on most frames, as a combination of the
+     * {@link Barcode} format flags, or {@link Barcode#ALL_FORMATS} while still learning.
+     */
+    public int getLearnedFormats() {
+        return mLearnedFormats;
+    }
+
+    /**
+     * Forgets the formats learned so far, in memory and in storage, for all instances.
+     */
+    public static void clearProfile(Context context) {
+        FormatProfile.getInstance(context).clear();
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mAllFormatsDetector.isOperational()
+                && (mLearnedDetector == null || mLearnedDetector.isOperational());
+    }
+
+    @Override
+    public void release() {
+        mProfile.flush();
+        mAllFormatsDetector.release();
+        if (mLearnedDetector != null) {
+            mLearnedDetector.release();
+            mLearnedDetector = null;
+        }
+        super.release();
+    }
+
+    private void setLearnedFormats(int formats) {
+        if (mLearnedDetector != null) {
+            mLearnedDetector.release();
+            mLearnedDetector = null;
+        }
+        mLearnedFormats = formats;
+        mEmptyFrames = 0;
+        mFramesSinceProbe = 0;
+        if (formats != Barcode.ALL_FORMATS) {
+            mLearnedDetector = mFactory.create(formats);
+        }
+    }
+
+    /**
+     * Builder for a format learning detector.
+     */
+    public static class Builder {
+        private final Context mContext;
+        private final FormatDetectorFactory mFactory;
+        private int mEmptyFrameLimit = 30;
+        private int mProbeInterval = 300;
+
+        public Builder(Context context, FormatDetectorFactory factory) {
+            if (context == null) {
+                throw new IllegalArgumentException("No context supplied.");
+            }
+            if (factory == null) {
+                throw new IllegalArgumentException("No detector factory supplied.");
+            }
+            mContext = context;
+            mFactory = factory;
+        }
+
+        /**
+         * Sets the number of frames in a row without a barcode after which a frame is searched
+         * for all formats.  Default: 30.
+         */
+        public Builder setEmptyFrameLimit(int frames) {
+            if (frames < 1) {
+                throw new IllegalArgumentException("Invalid empty frame limit: " + frames);
+            }
+            mEmptyFrameLimit = frames;
+            return this;
+        }
+
+        /**
+         * Sets the number of frames after which a frame is searched for all formats, even while
+         * barcodes are found.  Default: 300.
+         */
+        public Builder setProbeInterval(int frames) {
+            if (frames < 1) {
+                throw new IllegalArgumentException("Invalid probe interval: " + frames);
+            }
+            mProbeInterval = frames;
+            return this;
+        }
+
+        public FormatLearningDetector build() {
+            return new FormatLearningDetector(mContext, mFactory, mEmptyFrameLimit,
+                    mProbeInterval);
+        }
+    }
+}
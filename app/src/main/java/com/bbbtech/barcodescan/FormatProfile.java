@@ -0,0 +1,141 @@
+package com.bbbtech.barcodescan;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Process wide statistics of the barcode formats a deployment actually scans, backed by shared
+ * preferences so that the next session starts out with the formats learned before, see
+ * {@link FormatLearningDetector}.
+ * <p/>
+ * Each format flag of {@link Barcode} has a count of detections.  Once the counts add up to
+ * {@link #MIN_SAMPLES}, a format becomes active when it has at least {@link #ADD_SHARE_PERMILLE}
+ * per mille of the detections, and stays active until its share falls below
+ * {@link #DROP_SHARE_PERMILLE} per mille; before that, all formats are active.  The gap keeps a
+ * format whose share sits near the threshold from changing the active formats, and with them the
+ * detector, back and forth.  All counts are halved whenever they add up to {@link #MAX_SAMPLES},
+ * so that a format no longer scanned eventually drops out.
+ */
+final class FormatProfile {
+
+    private static final String PREFS_NAME = "com.bbbtech.barcodescan.format_profile";
+    private static final String KEY_FORMAT_PREFIX = "format_";
+
+    static final int MIN_SAMPLES = 20;
+    static final int MAX_SAMPLES = 1000;
+    static final int ADD_SHARE_PERMILLE = 10;
+    static final int DROP_SHARE_PERMILLE = 5;
+
+    // Detections between two writes of the profile.
+    private static final int SAVE_INTERVAL = 50;
+
+    // Barcode format flags run from CODE_128 (bit 0) up to AZTEC (bit 12).
+    private static final int FORMAT_BITS = 13;
+
+    private static FormatProfile sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    // Guarded by this.
+    private final long[] mCounts = new long[FORMAT_BITS];
+    private long mTotal;
+    private int mUnsaved;
+    private int mActiveFormats = Barcode.ALL_FORMATS;
+
+    private FormatProfile(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (int i = 0; i < FORMAT_BITS; ++i) {
+            mCounts[i] = Math.max(0, mPreferences.getLong(KEY_FORMAT_PREFIX + (1 << i), 0));
+            mTotal += mCounts[i];
+        }
+        updateActiveFormats();
+    }
+
+    static synchronized FormatProfile getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FormatProfile(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the formats worth looking for, as a combination of the {@link Barcode} format
+     * flags, or {@link Barcode#ALL_FORMATS} while too little is known.
+     */
+    synchronized int getActiveFormats() {
+        return mActiveFormats;
+    }
+
+    /**
+     * Counts a detection of the given format.
+     */
+    synchronized void record(int format) {
+        int bit = Integer.numberOfTrailingZeros(format);
+        if (format == 0 || bit >= FORMAT_BITS || format != (1 << bit)) {
+            return;
+        }
+        mCounts[bit]++;
+        mTotal++;
+        if (mTotal >= MAX_SAMPLES) {
+            mTotal = 0;
+            for (int i = 0; i < FORMAT_BITS; ++i) {
+                mCounts[i] /= 2;
+                mTotal += mCounts[i];
+            }
+        }
+        updateActiveFormats();
+
+        if (++mUnsaved >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    /**
+     * Writes counts not yet stored.
+     */
+    synchronized void flush() {
+        if (mUnsaved > 0) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets everything learned, so that all formats are active again.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < FORMAT_BITS; ++i) {
+            mCounts[i] = 0;
+        }
+        mTotal = 0;
+        mUnsaved = 0;
+        mActiveFormats = Barcode.ALL_FORMATS;
+        mPreferences.edit().clear().apply();
+    }
+
+    private void updateActiveFormats() {
+        if (mTotal < MIN_SAMPLES) {
+            mActiveFormats = Barcode.ALL_FORMATS;
+            return;
+        }
+        int active = (mActiveFormats == Barcode.ALL_FORMATS) ? 0 : mActiveFormats;
+        int formats = 0;
+        for (int i = 0; i < FORMAT_BITS; ++i) {
+            int share = ((active & (1 << i)) != 0) ? DROP_SHARE_PERMILLE : ADD_SHARE_PERMILLE;
+            if (mCounts[i] * 1000 >= mTotal * share) {
+                formats |= 1 << i;
+            }
+        }
+        mActiveFormats = formats;
+    }
+
+    private void save() {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (int i = 0; i < FORMAT_BITS; ++i) {
+            editor.putLong(KEY_FORMAT_PREFIX + (1 << i), mCounts[i]);
+        }
+        editor.apply();
+        mUnsaved = 0;
+    }
+}
@@ -0,0 +1,275 @@
+package com.bbbtech.barcodescan;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+import com.google.android.gms.common.images.Size;
+
+/**
+ * Pool of NV21 preview buffers owned by {@link CameraSource}.
+ * <p/>
+ * The pool outlives a single camera session: when the camera is stopped, every buffer goes back
+ * to the idle list and is handed to the next camera as long as the preview size did not change.
+ * While the camera is running the number of buffers follows a target that stays between the
+ * configured minimum and maximum.  Whenever the camera is left without a queued buffer (it then
+ * silently drops preview frames) the target grows by one, and after a long enough run without
+ * starvation it shrinks by one again.
+ * <p/>
+ * Buffers are kept in an indexed array of {@link FrameSlot}s.  The camera fills callback buffers
+ * in the order they were added, so the slots queued to the camera are tracked in a ring in that
+ * same order: the slot for a delivered frame is found by comparing against the head of the ring,
+ * without any hashing or allocation.
+ * <p/>
+ * All methods are synchronized, since buffers are received on the camera callback thread and
+ * returned from the frame processing thread.
+ */
+@SuppressWarnings("deprecation")
+final class FrameBufferPool implements FrameSlot.Recycler {
+
+    private static final String TAG = "FrameBufferPool";
+
+    /**
+     * Number of consecutive frames without starvation after which the target is lowered by one.
+     * About ten seconds at 30 fps.
+     */
+    private static final int SHRINK_AFTER_FRAMES = 300;
+
+    private final int mMinBuffers;
+    private final int mMaxBuffers;
+    private int mTargetBuffers;
+
+    private Size mBufferPreviewSize;
+    private int mBufferSize;
+
+    // Camera the queued buffers belong to, or null while the camera is stopped.
+    private Camera mCamera;
+
+    // Every allocated slot by index; null entries are free to be allocated.
+    private final FrameSlot[] mSlots;
+    private int mAllocatedCount;
+
+    // Ring of slot indices queued to the camera, in the order they were queued.
+    private final int[] mCameraQueue;
+    private int mQueueHead;
+    private int mQueuedCount;
+
+    // Stack of slot indices that are allocated but neither queued nor in use.
+    private final int[] mIdleSlots;
+    private int mIdleCount;
+
+    // Whether the slot of each index has been delivered and not recycled yet.
+    private final boolean[] mInUse;
+    private int mInUseCount;
+    private int mFramesSinceStarved;
+    private long mStarvedCount;
+
+    FrameBufferPool(int minBuffers, int maxBuffers) {
+        mMinBuffers = minBuffers;
+        mMaxBuffers = maxBuffers;
+        mTargetBuffers = minBuffers;
+        mSlots = new FrameSlot[maxBuffers];
+        mCameraQueue = new int[maxBuffers];
+        mIdleSlots = new int[maxBuffers];
+        mInUse = new boolean[maxBuffers];
+    }
+
+    /**
+     * Hands buffers for the supplied preview size to a newly opened camera.  Buffers from the
+     * previous session are reused if the preview size is unchanged, otherwise they are dropped.
+     */
+    synchronized void attach(Camera camera, Size previewSize) {
+        if (mBufferPreviewSize == null
+                || mBufferPreviewSize.getWidth() != previewSize.getWidth()
+                || mBufferPreviewSize.getHeight() != previewSize.getHeight()) {
+            clear();
+            mBufferPreviewSize = previewSize;
+            mBufferSize = getBufferSize(previewSize);
+        }
+
+        mCamera = camera;
+        mQueueHead = 0;
+        mQueuedCount = 0;
+        mInUseCount = 0;
+        mFramesSinceStarved = 0;
+        while (mQueuedCount < mTargetBuffers) {
+            queueSlot(takeIdleOrAllocate());
+        }
+    }
+
+    /**
+     * Takes every buffer back from a camera that has been stopped.  This is only safe after the
+     * camera preview has stopped and frame processing has finished, and the pending frame has
+     * dropped its reference.
+     */
+    synchronized void detach() {
+        mCamera = null;
+        mQueueHead = 0;
+        mQueuedCount = 0;
+        mInUseCount = 0;
+        mIdleCount = 0;
+        for (FrameSlot slot : mSlots) {
+            if (slot == null) {
+                continue;
+            }
+            mInUse[slot.index] = false;
+            if (slot.isLeased()) {
+                // Still held by a frame listener.  The buffer is dropped rather than handed to
+                // the next camera, and recycle() ignores it once the lease is released.
+                mSlots[slot.index] = null;
+                mAllocatedCount--;
+            } else {
+                mIdleSlots[mIdleCount++] = slot.index;
+            }
+        }
+    }
+
+    /**
+     * Drops all buffers, so that they can be garbage collected.
+     */
+    synchronized void release() {
+        mCamera = null;
+        clear();
+        mBufferPreviewSize = null;
+    }
+
+    /**
+     * Called for each preview frame delivered by the camera.  Returns the slot holding the
+     * supplied data, or null if the data was not allocated by this pool.
+     */
+    synchronized FrameSlot onFrameReceived(byte[] data) {
+        FrameSlot slot = dequeueSlot(data);
+        if (slot == null) {
+            return null;
+        }
+
+        mInUse[slot.index] = true;
+        mInUseCount++;
+
+        if (mQueuedCount <= 0) {
+            // The camera has nothing left to write the next frame into.
+            mStarvedCount++;
+            mFramesSinceStarved = 0;
+            if (mTargetBuffers < mMaxBuffers) {
+                mTargetBuffers++;
+                Log.d(TAG, "Preview buffers starved, growing pool to " + mTargetBuffers);
+            }
+            if (mQueuedCount + mInUseCount < mTargetBuffers) {
+                queueSlot(takeIdleOrAllocate());
+            }
+        } else if (++mFramesSinceStarved >= SHRINK_AFTER_FRAMES) {
+            mFramesSinceStarved = 0;
+            if (mTargetBuffers > mMinBuffers) {
+                mTargetBuffers--;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns a slot that was delivered by {@link #onFrameReceived(byte[])}.  It is queued to the
+     * camera again unless the pool is above its target size, in which case it is dropped.
+     */
+    @Override
+    public synchronized void recycle(FrameSlot slot) {
+        if (mSlots[slot.index] != slot) {
+            // Dropped by a preview size change in the meantime.
+            return;
+        }
+
+        if (mCamera == null || !mInUse[slot.index]) {
+            // Already taken back into the idle list by detach().
+            return;
+        }
+
+        mInUse[slot.index] = false;
+        mInUseCount--;
+        if (mQueuedCount + mInUseCount < mTargetBuffers) {
+            queueSlot(slot);
+        } else {
+            mSlots[slot.index] = null;
+            mAllocatedCount--;
+        }
+    }
+
+    synchronized CameraSource.BufferPoolStats getStats() {
+        return new CameraSource.BufferPoolStats(mBufferSize, mAllocatedCount,
+                mTargetBuffers, mQueuedCount, mInUseCount, mIdleCount, mStarvedCount);
+    }
+
+    private void queueSlot(FrameSlot slot) {
+        mCameraQueue[(mQueueHead + mQueuedCount) % mCameraQueue.length] = slot.index;
+        mQueuedCount++;
+        mCamera.addCallbackBuffer(slot.data);
+    }
+
+    /**
+     * Removes the slot holding the supplied data from the camera queue.  In the normal case this
+     * is the head of the queue; the rest of the queue is only searched if the camera returned
+     * buffers out of order.
+     */
+    private FrameSlot dequeueSlot(byte[] data) {
+        int capacity = mCameraQueue.length;
+        for (int i = 0; i < mQueuedCount; ++i) {
+            int position = (mQueueHead + i) % capacity;
+            FrameSlot slot = mSlots[mCameraQueue[position]];
+            if (slot.data != data) {
+                continue;
+            }
+
+            // Close the gap by moving the entries in front of it one step back.
+            for (int j = i; j > 0; --j) {
+                mCameraQueue[(mQueueHead + j) % capacity] =
+                        mCameraQueue[(mQueueHead + j - 1) % capacity];
+            }
+            mQueueHead = (mQueueHead + 1) % capacity;
+            mQueuedCount--;
+            return slot;
+        }
+        return null;
+    }
+
+    private FrameSlot takeIdleOrAllocate() {
+        if (mIdleCount > 0) {
+            return mSlots[mIdleSlots[--mIdleCount]];
+        }
+
+        for (int index = 0; index < mSlots.length; ++index) {
+            if (mSlots[index] == null) {
+                mSlots[index] = createSlot(index);
+                mAllocatedCount++;
+                return mSlots[index];
+            }
+        }
+        throw new IllegalStateException("Preview buffer pool is exhausted.");
+    }
+
+    private void clear() {
+        for (int index = 0; index < mSlots.length; ++index) {
+            mSlots[index] = null;
+            mInUse[index] = false;
+        }
+        mAllocatedCount = 0;
+        mQueueHead = 0;
+        mQueuedCount = 0;
+        mIdleCount = 0;
+        mInUseCount = 0;
+    }
+
+    /**
+     * Creates one slot for the camera preview callback.  The size of the buffer is based off of
+     * the camera preview size and the format of the camera image.
+     */
+    private FrameSlot createSlot(int index) {
+        //
+        // NOTICE: This code only works when using play services v. 8.1 or higher.
+        //
+        return new FrameSlot(index, this, new byte[mBufferSize],
+                mBufferPreviewSize.getWidth(), mBufferPreviewSize.getHeight());
+    }
+
+    private static int getBufferSize(Size previewSize) {
+        // One spare byte, as in the original vision sample buffers.
+        return Nv21Utils.getBufferSize(previewSize.getWidth(), previewSize.getHeight()) + 1;
+    }
+}
@@ -0,0 +1,106 @@
+package com.bbbtech.barcodescan;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A preview frame handed to a {@link FrameLeaseListener}.
+ * <p/>
+ * The NV21 data is either the pooled camera buffer itself, which goes back to the camera once the
+ * detector and every lease are done with it, or a downsampled copy owned by the listener.  In both
+ * cases the data must not be modified, and must not be touched after {@link #release()}.
+ * <p/>
+ * Frames are in sensor orientation, already mirrored for the front camera like the frames seen by
+ * the detector; {@link #getRotation()} gives the rotation to the upright image.
+ */
+public final class FrameLease {
+
+    /**
+     * Takes back the data of a lease once it is released.
+     */
+    interface Owner {
+        void onReleased(FrameLease lease);
+    }
+
+    private final byte[] mData;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameId;
+    private final long mTimestampMillis;
+    private final int mRotation;
+
+    private final FrameSlot mSlot;
+    private final Owner mOwner;
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    /**
+     * Leases the pooled buffer of the supplied slot, which has to be retained for this lease.
+     */
+    FrameLease(FrameSlot slot) {
+        this(slot.data, slot.width, slot.height, slot, slot, null);
+    }
+
+    /**
+     * Leases a copy of the frame held by the supplied slot.
+     */
+    FrameLease(byte[] data, int width, int height, FrameSlot slot, Owner owner) {
+        this(data, width, height, slot, null, owner);
+    }
+
+    private FrameLease(byte[] data, int width, int height, FrameSlot metadata, FrameSlot slot,
+                       Owner owner) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mFrameId = metadata.frameId;
+        mTimestampMillis = metadata.timestampMillis;
+        mRotation = metadata.rotation;
+        mSlot = slot;
+        mOwner = owner;
+    }
+
+    /** The slot whose pooled buffer is leased, or null for a copy. */
+    FrameSlot getSlot() {
+        return mSlot;
+    }
+
+    /** The NV21 image data.  Its length may exceed the size of the image. */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Id of the frame, increasing from frame to frame like the ids seen by the detector. */
+    public int getFrameId() {
+        return mFrameId;
+    }
+
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+
+    /** Rotation of the frame, see {@link com.google.android.gms.vision.Frame.Metadata#getRotation()}. */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Gives the frame data back.  Further calls have no effect.
+     */
+    public void release() {
+        if (!mReleased.compareAndSet(false, true)) {
+            return;
+        }
+        if (mSlot != null) {
+            mSlot.recycle();
+        } else if (mOwner != null) {
+            mOwner.onReleased(this);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.bbbtech.barcodescan;
+
+/**
+ * Receives preview frames from {@link CameraSource#addFrameListener}, off the frame processing
+ * path.
+ * <p/>
+ * Each frame comes as a {@link FrameLease} that keeps its buffer away from the camera until
+ * {@link FrameLease#release()} is called.  The lease may be kept beyond this call, e.g. to hand it
+ * to another thread, but must always be released.
+ */
+public interface FrameLeaseListener {
+    void onFrame(FrameLease lease);
+}
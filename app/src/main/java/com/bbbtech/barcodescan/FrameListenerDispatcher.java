@@ -0,0 +1,232 @@
+package com.bbbtech.barcodescan;
+
+import android.util.Log;
+
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands frames to one {@link FrameLeaseListener} on its executor, following its
+ * {@link FrameListenerOptions}.
+ * <p/>
+ * {@link #offer(FrameSlot)} is called by the frame processing threads and never waits for the
+ * listener: it takes a lease on the frame, queues it according to the policy and schedules a
+ * drain task on the executor if none is running.  Frames dropped by the policy or the rate limit
+ * are never leased.  A downsampled copy is made by the drain task, on the executor of the
+ * listener, which releases the frame as soon as it is copied.
+ */
+final class FrameListenerDispatcher implements FrameLease.Owner {
+
+    private static final String TAG = "FrameListenerDispatcher";
+
+    private final FrameLeaseListener mListener;
+    private final FrameListenerOptions.Policy mPolicy;
+    private final int mQueueCapacity;
+    private final long mMinFrameIntervalMillis;
+    private final boolean mDownsampled;
+    private final Executor mExecutor;
+    private final boolean mOwnsExecutor;
+
+    // Guarded by this.
+    private final ArrayDeque<FrameLease> mQueue = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeCopies = new ArrayDeque<>();
+    private int mCopyCount;
+    private int mCopySize;
+    private boolean mDraining;
+    private boolean mClosed;
+    private long mLastFrameMillis = Long.MIN_VALUE;
+    private long mDroppedCount;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    FrameListenerDispatcher(FrameLeaseListener listener, FrameListenerOptions options) {
+        mListener = listener;
+        mPolicy = options.getPolicy();
+        mQueueCapacity = (mPolicy == FrameListenerOptions.Policy.BOUNDED_QUEUE)
+                ? options.getQueueCapacity() : 1;
+        mMinFrameIntervalMillis = options.getMinFrameIntervalMillis();
+        mDownsampled = options.isDownsampled();
+        if (options.getExecutor() != null) {
+            mExecutor = options.getExecutor();
+            mOwnsExecutor = false;
+        } else {
+            mExecutor = Executors.newSingleThreadExecutor();
+            mOwnsExecutor = true;
+        }
+    }
+
+    FrameLeaseListener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Offers a frame that is about to be detected.  Only frames with an NV21 array are offered.
+     */
+    void offer(FrameSlot slot) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            if (mMinFrameIntervalMillis > 0 && mLastFrameMillis != Long.MIN_VALUE
+                    && slot.timestampMillis - mLastFrameMillis < mMinFrameIntervalMillis) {
+                return;
+            }
+
+            switch (mPolicy) {
+                case DROP:
+                    if (mDraining || !mQueue.isEmpty()) {
+                        mDroppedCount++;
+                        return;
+                    }
+                    break;
+                case LATEST_ONLY:
+                    if (!mQueue.isEmpty()) {
+                        mQueue.poll().release();
+                        mDroppedCount++;
+                    }
+                    break;
+                case BOUNDED_QUEUE:
+                    if (mQueue.size() >= mQueueCapacity) {
+                        mDroppedCount++;
+                        return;
+                    }
+                    break;
+            }
+
+            FrameLease lease = lease(slot);
+            mLastFrameMillis = slot.timestampMillis;
+            mQueue.add(lease);
+            if (mDraining) {
+                return;
+            }
+            mDraining = true;
+        }
+
+        try {
+            mExecutor.execute(mDrain);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Frame listener executor rejected the frame.", e);
+            synchronized (this) {
+                mDraining = false;
+                releaseQueued();
+            }
+        }
+    }
+
+    /**
+     * Stops handing frames to the listener and releases the frames still waiting for it.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            releaseQueued();
+        }
+        if (mOwnsExecutor) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    @Override
+    public synchronized void onReleased(FrameLease lease) {
+        byte[] data = lease.getData();
+        if (data.length == mCopySize) {
+            mFreeCopies.push(data);
+        } else {
+            // Copy of a previous preview size.
+            mCopyCount--;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            FrameLease lease;
+            synchronized (this) {
+                lease = mQueue.poll();
+                if (lease == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+
+            if (mDownsampled) {
+                FrameLease copy = copy(lease);
+                lease.release();
+                if (copy == null) {
+                    synchronized (this) {
+                        mDroppedCount++;
+                    }
+                    continue;
+                }
+                lease = copy;
+            }
+
+            try {
+                mListener.onFrame(lease);
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from frame listener.", t);
+                lease.release();
+            }
+        }
+    }
+
+    // Called with the lock held.
+    private FrameLease lease(FrameSlot slot) {
+        slot.retain();
+        return new FrameLease(slot);
+    }
+
+    /**
+     * Returns a half resolution copy of a leased frame, or null if too many copies are still
+     * leased.  Called on the executor, without the lock held while scaling.
+     */
+    private FrameLease copy(FrameLease source) {
+        FrameSlot slot = source.getSlot();
+        int width = Nv21Utils.downscaledSize(slot.width);
+        int height = Nv21Utils.downscaledSize(slot.height);
+        int size = Nv21Utils.getBufferSize(width, height);
+
+        byte[] data;
+        synchronized (this) {
+            if (size != mCopySize) {
+                // Copies still leased are dropped when they come back.
+                mCopyCount -= mFreeCopies.size();
+                mFreeCopies.clear();
+                mCopySize = size;
+            }
+
+            data = mFreeCopies.poll();
+            if (data == null) {
+                // One copy per queued frame and one for the frame the listener is working on.
+                if (mCopyCount > mQueueCapacity) {
+                    return null;
+                }
+                data = new byte[size];
+                mCopyCount++;
+            }
+        }
+        Nv21Utils.downscale2x(slot.data, slot.width, slot.height, data);
+        return new FrameLease(data, width, height, slot, this);
+    }
+
+    // Called with the lock held.
+    private void releaseQueued() {
+        FrameLease lease;
+        while ((lease = mQueue.poll()) != null) {
+            lease.release();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.bbbtech.barcodescan;
+
+import java.util.concurrent.Executor;
+
+/**
+ * How frames are handed to a {@link FrameLeaseListener}, see
+ * {@link CameraSource#addFrameListener(FrameLeaseListener, FrameListenerOptions)}.
+ */
+public final class FrameListenerOptions {
+
+    /**
+     * What happens to a new frame while the listener is still busy.
+     */
+    public enum Policy {
+        /** The new frame is dropped until the listener has caught up with every frame. */
+        DROP,
+        /** The new frame replaces a frame still waiting for the listener. */
+        LATEST_ONLY,
+        /** The new frame is queued, or dropped if the queue is full. */
+        BOUNDED_QUEUE
+    }
+
+    private final Policy mPolicy;
+    private final int mQueueCapacity;
+    private final long mMinFrameIntervalMillis;
+    private final boolean mDownsampled;
+    private final Executor mExecutor;
+
+    private FrameListenerOptions(Builder builder) {
+        mPolicy = builder.mPolicy;
+        mQueueCapacity = builder.mQueueCapacity;
+        mMinFrameIntervalMillis = builder.mMinFrameIntervalMillis;
+        mDownsampled = builder.mDownsampled;
+        mExecutor = builder.mExecutor;
+    }
+
+    Policy getPolicy() {
+        return mPolicy;
+    }
+
+    int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    long getMinFrameIntervalMillis() {
+        return mMinFrameIntervalMillis;
+    }
+
+    boolean isDownsampled() {
+        return mDownsampled;
+    }
+
+    Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Builder for listener options.  By default the listener gets the latest frame only, at the
+     * full frame rate and resolution, on a thread of its own.
+     */
+    public static class Builder {
+        private Policy mPolicy = Policy.LATEST_ONLY;
+        private int mQueueCapacity = 2;
+        private long mMinFrameIntervalMillis = 0;
+        private boolean mDownsampled = false;
+        private Executor mExecutor;
+
+        public Builder setPolicy(Policy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("Policy must not be null.");
+            }
+            mPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the number of frames that may wait for the listener with
+         * {@link Policy#BOUNDED_QUEUE}.  Every waiting frame keeps a preview buffer from the
+         * camera unless the listener is downsampled.  Default: 2.
+         */
+        public Builder setQueueCapacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+            }
+            mQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Limits the rate of frames handed to the listener.  A frame is skipped if it follows the
+         * previous frame of the listener by less than the given interval.  Default: 0.
+         */
+        public Builder setMinFrameIntervalMillis(long intervalMillis) {
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("Invalid frame interval: " + intervalMillis);
+            }
+            mMinFrameIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Hands the listener a half resolution copy of each frame instead of the pooled buffer,
+         * so that a slow listener never holds on to camera buffers.  The copy is made on the
+         * executor of the listener; a frame waiting in the queue still holds its buffer until
+         * then.  Default: disabled.
+         */
+        public Builder setDownsampled(boolean downsampled) {
+            mDownsampled = downsampled;
+            return this;
+        }
+
+        /**
+         * Sets the executor running the listener.  By default each listener gets a single thread
+         * of its own, which is shut down when the listener is removed.
+         */
+        public Builder setExecutor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        public FrameListenerOptions build() {
+            return new FrameListenerOptions(this);
+        }
+    }
+}
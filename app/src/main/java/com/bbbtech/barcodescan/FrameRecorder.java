@@ -0,0 +1,138 @@
+package com.bbbtech.barcodescan;
+
+import android.util.Log;
+
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends preview frames to a file, for replaying them later with
+ * {@link CameraSource.Builder#setReplay(File, boolean, Runnable)}.
+ * <p/>
+ * Add the recorder with {@link CameraSource#addFrameListener(FrameLeaseListener,
+ * FrameListenerOptions)}; a {@link FrameListenerOptions.Policy#BOUNDED_QUEUE} keeps frames from
+ * being dropped while a frame is written.  Frames are recorded like a {@link FrameLease} holds
+ * them, already mirrored for the front camera.
+ * <p/>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by the frames.  Each frame is
+ * a header of the data length, width, height, rotation and camera facing as ints and the timestamp
+ * in milliseconds as a long, all big endian, followed by the NV21 data.  A recording stops growing
+ * at {@link #MAX_FILE_SIZE}, so that it can be mapped into memory as a whole.
+ */
+public final class FrameRecorder implements FrameLeaseListener, Closeable {
+
+    private static final String TAG = "FrameRecorder";
+
+    static final int MAGIC = 0x42534652; // "BSFR"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int FRAME_HEADER_SIZE = 28;
+    static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private final int mFacing;
+    private final FileOutputStream mOutput;
+    private final FileChannel mChannel;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+    // Guarded by this.
+    private long mFileSize;
+    private int mFrameCount;
+    private boolean mClosed;
+
+    /**
+     * Creates a new recording, replacing the supplied file.
+     *
+     * @param facing the camera the frames come from, {@link CameraSource#CAMERA_FACING_BACK} or
+     *               {@link CameraSource#CAMERA_FACING_FRONT}
+     */
+    public FrameRecorder(File file, int facing) throws IOException {
+        mFacing = facing;
+        mOutput = new FileOutputStream(file);
+        mChannel = mOutput.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        try {
+            writeFully(header);
+        } catch (IOException e) {
+            mOutput.close();
+            throw e;
+        }
+        mFileSize = FILE_HEADER_SIZE;
+    }
+
+    @Override
+    public void onFrame(FrameLease lease) {
+        try {
+            synchronized (this) {
+                if (!mClosed) {
+                    write(lease);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record a frame, recording stopped.", e);
+            close();
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Returns the number of frames recorded so far.
+     */
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Stops recording and closes the file.  Remove the recorder from the camera source first, or
+     * later frames are just released.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            mOutput.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close the recording.", e);
+        }
+    }
+
+    private void write(FrameLease lease) throws IOException {
+        int length = Nv21Utils.getBufferSize(lease.getWidth(), lease.getHeight());
+        if (mFileSize + FRAME_HEADER_SIZE + length > MAX_FILE_SIZE) {
+            Log.w(TAG, "Recording reached its maximum size after " + mFrameCount + " frames.");
+            close();
+            return;
+        }
+
+        mHeader.clear();
+        mHeader.putInt(length)
+                .putInt(lease.getWidth())
+                .putInt(lease.getHeight())
+                .putInt(lease.getRotation())
+                .putInt(mFacing)
+                .putLong(lease.getTimestampMillis())
+                .flip();
+        writeFully(mHeader);
+        writeFully(ByteBuffer.wrap(lease.getData(), 0, length));
+
+        mFileSize += FRAME_HEADER_SIZE + length;
+        mFrameCount++;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
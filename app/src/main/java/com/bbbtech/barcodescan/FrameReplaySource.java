@@ -0,0 +1,267 @@
+package com.bbbtech.barcodescan;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+import com.google.android.gms.common.images.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a recording of {@link FrameRecorder} in place of the camera, see
+ * {@link CameraSource.Builder#setReplay(File, boolean, Runnable)}.
+ * <p/>
+ * The file is mapped into memory and indexed up front; a frame cut short at the end of the file,
+ * or a frame of another size than the first one, is left out.  Each frame is copied from the
+ * mapping into a slot owned by this source, since the frame processing path works on the slot
+ * array in place.  Front camera frames were recorded mirrored, so they are mirrored back here and
+ * go through the same mirroring as live frames.
+ * <p/>
+ * The frame callback is expected to wait until the previous frame has been taken by a detection
+ * worker, so that no frame is superseded and the same recording always gives the same detections.
+ * Frames keep their recorded timestamp and rotation, and are either paced by their timestamps or
+ * replayed as fast as the workers take them.
+ */
+final class FrameReplaySource implements FrameSlot.Recycler {
+
+    private static final String TAG = "FrameReplaySource";
+
+    /**
+     * Receives the replayed frames, on the replay thread.
+     */
+    interface FrameCallback {
+        /**
+         * Hands a frame over, waiting until the previous frame has been taken.
+         */
+        void onFrame(FrameSlot slot) throws InterruptedException;
+    }
+
+    private final FrameCallback mFrameCallback;
+    private final boolean mRecordedSpeed;
+    private final Runnable mFinishedCallback;
+    private final int mThreadPriority;
+
+    private final MappedByteBuffer mMapping;
+    private final int[] mFrameOffsets;
+    private final int mFrameCount;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDataLength;
+    private final int mFacing;
+
+    // Slots free to receive the next frame, guarded by this.
+    private final FrameSlot[] mSlots;
+    private final int[] mFreeSlots;
+    private int mFreeCount;
+    private boolean mClosed;
+
+    private Thread mThread;
+
+    /**
+     * Maps and indexes the supplied recording.
+     *
+     * @param recordedSpeed    whether frames are paced by their recorded timestamps, rather than
+     *                         replayed as fast as they are taken
+     * @param slotCount        the number of frames that may be held at the same time
+     * @param finishedCallback called on the replay thread once the last frame has been handed
+     *                         over, or null
+     * @throws IOException if the file could not be read or holds no frame
+     */
+    FrameReplaySource(File file, boolean recordedSpeed, int slotCount, int threadPriority,
+                      FrameCallback frameCallback, Runnable finishedCallback) throws IOException {
+        mFrameCallback = frameCallback;
+        mRecordedSpeed = recordedSpeed;
+        mFinishedCallback = finishedCallback;
+        mThreadPriority = threadPriority;
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > FrameRecorder.MAX_FILE_SIZE) {
+                throw new IOException("Recording is too large to replay: " + file);
+            }
+            // The mapping stays valid once the file is closed.
+            mMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+
+        if (mMapping.remaining() < FrameRecorder.FILE_HEADER_SIZE
+                || mMapping.getInt(0) != FrameRecorder.MAGIC) {
+            throw new IOException("Not a frame recording: " + file);
+        }
+        if (mMapping.getInt(4) != FrameRecorder.VERSION) {
+            throw new IOException("Unsupported frame recording version: " + mMapping.getInt(4));
+        }
+
+        // First pass counts the frames, second pass keeps the frames matching the first one.
+        int[] offsets = new int[countFrames(mMapping)];
+        int count = 0;
+        int width = 0;
+        int height = 0;
+        int dataLength = 0;
+        int facing = CameraSource.CAMERA_FACING_BACK;
+        int offset = FrameRecorder.FILE_HEADER_SIZE;
+        int limit = mMapping.limit();
+        while (limit - offset >= FrameRecorder.FRAME_HEADER_SIZE) {
+            int length = mMapping.getInt(offset);
+            if (length < 0 || limit - offset - FrameRecorder.FRAME_HEADER_SIZE < length) {
+                break;
+            }
+            if (count == 0) {
+                dataLength = length;
+                width = mMapping.getInt(offset + 4);
+                height = mMapping.getInt(offset + 8);
+                facing = mMapping.getInt(offset + 16);
+            }
+            if (length == dataLength && mMapping.getInt(offset + 4) == width
+                    && mMapping.getInt(offset + 8) == height) {
+                offsets[count++] = offset;
+            } else {
+                Log.w(TAG, "Skipping a recorded frame of another size.");
+            }
+            offset += FrameRecorder.FRAME_HEADER_SIZE + length;
+        }
+        if (count == 0 || dataLength < Nv21Utils.getBufferSize(width, height)) {
+            throw new IOException("Frame recording holds no frame: " + file);
+        }
+
+        mFrameOffsets = offsets;
+        mFrameCount = count;
+        mWidth = width;
+        mHeight = height;
+        mDataLength = dataLength;
+        mFacing = facing;
+
+        mSlots = new FrameSlot[slotCount];
+        mFreeSlots = new int[slotCount];
+        for (int i = 0; i < slotCount; ++i) {
+            mSlots[i] = new FrameSlot(i, this, new byte[dataLength], width, height);
+            mFreeSlots[mFreeCount++] = i;
+        }
+    }
+
+    Size getPreviewSize() {
+        return new Size(mWidth, mHeight);
+    }
+
+    int getFacing() {
+        return mFacing;
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Starts handing the frames to the frame callback, on a thread of its own.
+     */
+    void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(mThreadPriority);
+                try {
+                    replay();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Replay stopped.");
+                }
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stops the replay, waiting for the replay thread to finish.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            notifyAll();
+        }
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interrupted while waiting for the replay thread to finish.", e);
+                Thread.currentThread().interrupt();
+            }
+            mThread = null;
+        }
+    }
+
+    @Override
+    public synchronized void recycle(FrameSlot slot) {
+        if (mSlots[slot.index] != slot) {
+            return;
+        }
+        mFreeSlots[mFreeCount++] = slot.index;
+        notifyAll();
+    }
+
+    private void replay() throws InterruptedException {
+        ByteBuffer mapping = mMapping.duplicate();
+        byte[] rowBuffer = new byte[mWidth];
+        long firstTimestamp = mMapping.getLong(mFrameOffsets[0] + 20);
+        long startNanos = System.nanoTime();
+
+        for (int i = 0; i < mFrameCount; ++i) {
+            int offset = mFrameOffsets[i];
+            long timestamp = mMapping.getLong(offset + 20);
+            if (mRecordedSpeed) {
+                long delayNanos = (timestamp - firstTimestamp) * 1000000L
+                        - (System.nanoTime() - startNanos);
+                if (delayNanos > 0) {
+                    Thread.sleep(delayNanos / 1000000L, (int) (delayNanos % 1000000L));
+                }
+            }
+
+            FrameSlot slot = takeFreeSlot();
+            mapping.position(offset + FrameRecorder.FRAME_HEADER_SIZE);
+            mapping.get(slot.data, 0, mDataLength);
+            if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+                Nv21Utils.mirrorVertically(slot.data, mWidth, mHeight, rowBuffer);
+            }
+            slot.rotation = mMapping.getInt(offset + 12);
+            slot.timestampMillis = timestamp;
+            mFrameCallback.onFrame(slot);
+        }
+
+        Log.d(TAG, "Replayed " + mFrameCount + " frames.");
+        if (mFinishedCallback != null) {
+            mFinishedCallback.run();
+        }
+    }
+
+    private synchronized FrameSlot takeFreeSlot() throws InterruptedException {
+        while (mFreeCount == 0 && !mClosed) {
+            wait();
+        }
+        if (mClosed) {
+            throw new InterruptedException();
+        }
+        return mSlots[mFreeSlots[--mFreeCount]];
+    }
+
+    private static int countFrames(ByteBuffer mapping) {
+        int count = 0;
+        int offset = FrameRecorder.FILE_HEADER_SIZE;
+        int limit = mapping.limit();
+        while (limit - offset >= FrameRecorder.FRAME_HEADER_SIZE) {
+            int length = mapping.getInt(offset);
+            if (length < 0 || limit - offset - FrameRecorder.FRAME_HEADER_SIZE < length) {
+                break;
+            }
+            count++;
+            offset += FrameRecorder.FRAME_HEADER_SIZE + length;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,137 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.ImageFormat;
+
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One preview buffer, together with everything needed to hand it to a detector: the byte buffer
+ * wrapping it, the metadata of the frame it currently holds and a frame builder that already
+ * carries the image data.
+ * <p/>
+ * {@link Frame.Builder} keeps a single frame instance and its setters only update that frame, so
+ * keeping one builder per slot means that no frame objects are created per preview frame.
+ * <p/>
+ * Slots of the camera1 {@link FrameBufferPool} own an NV21 array.  Slots of a
+ * {@link Camera2Session} have no array; they wrap the luma plane of the current image instead, see
+ * {@link #setImageBuffer(ByteBuffer)}, so stages that work on the pixels are skipped for them.
+ * <p/>
+ * A slot is reference counted: the frame processing path holds one reference from the moment the
+ * camera delivers the frame, and every {@link FrameLease} of a frame listener holds another.  The
+ * slot goes back to its owner when the last reference is recycled.
+ */
+final class FrameSlot {
+
+    /**
+     * Takes back slots once their frame has been processed.
+     */
+    interface Recycler {
+        void recycle(FrameSlot slot);
+    }
+
+    final int index;
+    final int width;
+    final int height;
+
+    // The NV21 image data, or null for a slot wrapping an image plane.
+    final byte[] data;
+    ByteBuffer buffer;
+
+    // Metadata of the frame currently held in this slot.
+    int frameId;
+    long timestampMillis;
+    int rotation;
+
+    // When the frame was handed to the workers, in System.nanoTime() time.
+    long handoffNanos;
+
+    private final Recycler mRecycler;
+    private final AtomicInteger mReferences = new AtomicInteger();
+    private final Frame.Builder mFrameBuilder = new Frame.Builder();
+
+    /**
+     * Creates a slot owning the supplied NV21 array.
+     */
+    FrameSlot(int index, Recycler recycler, byte[] data, int width, int height) {
+        this.index = index;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        mRecycler = recycler;
+
+        // Wrapping the byte array, as opposed to using .allocate(), guarantees that there will
+        // be an array to work with.
+        buffer = ByteBuffer.wrap(data);
+        mFrameBuilder.setImageData(buffer, width, height, ImageFormat.NV21);
+    }
+
+    /**
+     * Creates a slot without an array, for image planes set with
+     * {@link #setImageBuffer(ByteBuffer)}.
+     */
+    FrameSlot(int index, Recycler recycler, int width, int height) {
+        this.index = index;
+        this.data = null;
+        this.width = width;
+        this.height = height;
+        mRecycler = recycler;
+    }
+
+    /**
+     * Points this slot at the luma plane of a camera image, with a row stride equal to the width.
+     * The detector only reads the luma of an NV21 frame, so the plane is passed on as the NV21
+     * image data without copying.
+     */
+    void setImageBuffer(ByteBuffer luma) {
+        buffer = luma;
+        mFrameBuilder.setImageData(luma, width, height, ImageFormat.NV21);
+    }
+
+    /**
+     * Returns the frame for the current content of this slot.
+     */
+    Frame buildFrame() {
+        return mFrameBuilder
+                .setId(frameId)
+                .setTimestampMillis(timestampMillis)
+                .setRotation(rotation)
+                .build();
+    }
+
+    /**
+     * Adds a reference to the frame currently held by this slot.
+     */
+    void retain() {
+        mReferences.incrementAndGet();
+    }
+
+    /**
+     * Drops a reference, and hands this slot back to its owner once the frame is no longer
+     * referenced.
+     */
+    void recycle() {
+        if (releaseReference()) {
+            mRecycler.recycle(this);
+        }
+    }
+
+    /**
+     * Drops a reference without handing the slot back, for slots the owner takes back on its own.
+     *
+     * @return true if this was the last reference
+     */
+    boolean releaseReference() {
+        return mReferences.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns whether a frame listener still holds a lease on the frame, once the frame
+     * processing path is done with it.
+     */
+    boolean isLeased() {
+        return mReferences.get() > 0;
+    }
+}
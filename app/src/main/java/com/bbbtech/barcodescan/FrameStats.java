@@ -0,0 +1,342 @@
+package com.bbbtech.barcodescan;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of every stage between the camera callback and
+ * {@link BarcodeRecognizer#onRecognized}, together with counters of where frames go.
+ * <p/>
+ * Every {@link CameraSource} keeps one of these, see {@link CameraSource#getFrameStats()}.  The
+ * stages past the detector run in the processor and the tracker, so the same instance has to be
+ * handed to {@link BarcodeCropFocusingProcessor#setFrameStats(FrameStats)} and
+ * {@link BarcodeTracker#setFrameStats(FrameStats)} for them to be recorded.
+ * <p/>
+ * Recording only touches atomic counters, so it is safe from any thread and never blocks.  Each
+ * histogram has power of two buckets of nanoseconds, which is plenty to compare device models and
+ * keeps recording to a single increment.
+ */
+public final class FrameStats {
+
+    /**
+     * The stages a frame goes through, in order.
+     */
+    public enum Stage {
+        /** The camera preview callback, up to the frame being handed to the workers. */
+        PREVIEW_CALLBACK,
+        /** From the frame being handed over until a worker takes it. */
+        HANDOFF_WAIT,
+        /** Mirroring, frame listener fan-out and building the detector frame. */
+        FRAME_BUILD,
+        /** The detector call, {@code receiveFrame()} or {@code detect()}. */
+        RECEIVE_FRAME,
+        /** {@link BarcodeCropFocusingProcessor#selectFocus}. */
+        SELECT_FOCUS,
+        /** The focusing processor handing the focused item to the tracker, recognizer included. */
+        TRACKER_DISPATCH,
+        /** {@link BarcodeRecognizer#onRecognized}. */
+        RECOGNIZER
+    }
+
+    /**
+     * Number of buckets per histogram.  Bucket {@code i > 0} counts durations of at least
+     * {@code 2^(i - 1)} and less than {@code 2^i} nanoseconds; the last bucket also takes
+     * everything longer.
+     */
+    public static final int BUCKET_COUNT = 36;
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(STAGE_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(STAGE_COUNT);
+
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+    private final AtomicLong mSupersededCount = new AtomicLong();
+    private final AtomicLong mUnknownBufferCount = new AtomicLong();
+    private final AtomicLong mProcessedCount = new AtomicLong();
+
+    // Frames of the current camera session, for the delivered fps.  Only written by the thread
+    // delivering the camera frames.
+    private volatile long mSessionFrameCount;
+    private volatile long mSessionFirstFrameNanos;
+    private volatile long mSessionLastFrameNanos;
+
+    FrameStats() {
+    }
+
+    /**
+     * Records a stage that started at the given {@link System#nanoTime()} and ends now.
+     */
+    void recordSince(Stage stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    void record(Stage stage, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+        mBuckets.incrementAndGet(stage.ordinal() * BUCKET_COUNT + bucket);
+        mTotalNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * Starts measuring the delivered fps of a new camera session.
+     */
+    void onSessionStarted() {
+        mSessionFrameCount = 0;
+    }
+
+    /**
+     * Counts a frame delivered by the camera at the given {@link System#nanoTime()}.
+     */
+    void onFrameDelivered(long nanos) {
+        mDeliveredCount.incrementAndGet();
+        if (mSessionFrameCount == 0) {
+            mSessionFirstFrameNanos = nanos;
+        }
+        mSessionLastFrameNanos = nanos;
+        mSessionFrameCount = mSessionFrameCount + 1;
+    }
+
+    /**
+     * Counts a frame that was replaced by a newer one before any worker took it.
+     */
+    void onFrameSuperseded() {
+        mSupersededCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a camera buffer that didn't belong to the buffer pool.
+     */
+    void onUnknownBuffer() {
+        mUnknownBufferCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame the detector has run on.
+     */
+    void onFrameProcessed() {
+        mProcessedCount.incrementAndGet();
+    }
+
+    /**
+     * Returns a copy of the current histograms and counters.  The values are read one by one
+     * while recording goes on, so counters of the same frame may be off by a few between each
+     * other.
+     */
+    public Snapshot snapshot() {
+        Histogram[] histograms = new Histogram[STAGE_COUNT];
+        for (int stage = 0; stage < STAGE_COUNT; ++stage) {
+            long[] buckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                buckets[i] = mBuckets.get(stage * BUCKET_COUNT + i);
+            }
+            histograms[stage] = new Histogram(buckets, mTotalNanos.get(stage));
+        }
+
+        long frames = mSessionFrameCount;
+        long elapsedNanos = mSessionLastFrameNanos - mSessionFirstFrameNanos;
+        float fps = (frames > 1 && elapsedNanos > 0) ? (frames - 1) * 1e9f / elapsedNanos : 0f;
+
+        return new Snapshot(histograms, mDeliveredCount.get(), mSupersededCount.get(),
+                mUnknownBufferCount.get(), mProcessedCount.get(), fps);
+    }
+
+    /**
+     * Clears all histograms and counters, and starts measuring the delivered fps over.
+     */
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); ++i) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < mTotalNanos.length(); ++i) {
+            mTotalNanos.set(i, 0);
+        }
+        mDeliveredCount.set(0);
+        mSupersededCount.set(0);
+        mUnknownBufferCount.set(0);
+        mProcessedCount.set(0);
+        mSessionFrameCount = 0;
+        mSessionFirstFrameNanos = 0;
+        mSessionLastFrameNanos = 0;
+    }
+
+    /**
+     * Returns the smallest duration counted by the given bucket, in nanoseconds.
+     */
+    public static long getBucketLowerBoundNanos(int bucket) {
+        return (bucket == 0) ? 0 : 1L << (bucket - 1);
+    }
+
+    /**
+     * Latency histogram of one stage, see {@link #BUCKET_COUNT} for the bucket layout.
+     */
+    public static final class Histogram {
+        private final long[] mBuckets;
+        private final long mTotalNanos;
+        private final long mCount;
+
+        Histogram(long[] buckets, long totalNanos) {
+            mBuckets = buckets;
+            mTotalNanos = totalNanos;
+            long count = 0;
+            for (long value : buckets) {
+                count += value;
+            }
+            mCount = count;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getBucketCount(int bucket) {
+            return mBuckets[bucket];
+        }
+
+        public long getMeanNanos() {
+            return (mCount > 0) ? mTotalNanos / mCount : 0;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile ({@code 0} to {@code 100}), which is the
+         * upper bound of the bucket it falls in.
+         */
+        public long getPercentileNanos(float percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100f);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; ++i) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return getBucketLowerBoundNanos(i + 1);
+                }
+            }
+            return getBucketLowerBoundNanos(mBuckets.length);
+        }
+
+        JSONObject toJson() throws JSONException {
+            // Trailing empty buckets are left out.
+            int length = mBuckets.length;
+            while (length > 0 && mBuckets[length - 1] == 0) {
+                length--;
+            }
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < length; ++i) {
+                buckets.put(mBuckets[i]);
+            }
+            return new JSONObject()
+                    .put("count", mCount)
+                    .put("meanNanos", getMeanNanos())
+                    .put("p50Nanos", getPercentileNanos(50))
+                    .put("p95Nanos", getPercentileNanos(95))
+                    .put("p99Nanos", getPercentileNanos(99))
+                    .put("buckets", buckets);
+        }
+    }
+
+    /**
+     * Histograms and counters at one point in time, see {@link #snapshot()}.
+     */
+    public static final class Snapshot {
+        private final Histogram[] mHistograms;
+        private final long mDeliveredCount;
+        private final long mSupersededCount;
+        private final long mUnknownBufferCount;
+        private final long mProcessedCount;
+        private final float mDeliveredFps;
+
+        Snapshot(Histogram[] histograms, long deliveredCount, long supersededCount,
+                 long unknownBufferCount, long processedCount, float deliveredFps) {
+            mHistograms = histograms;
+            mDeliveredCount = deliveredCount;
+            mSupersededCount = supersededCount;
+            mUnknownBufferCount = unknownBufferCount;
+            mProcessedCount = processedCount;
+            mDeliveredFps = deliveredFps;
+        }
+
+        public Histogram getHistogram(Stage stage) {
+            return mHistograms[stage.ordinal()];
+        }
+
+        /**
+         * Returns the number of frames the camera delivered.
+         */
+        public long getDeliveredCount() {
+            return mDeliveredCount;
+        }
+
+        /**
+         * Returns the number of frames replaced by a newer frame before a worker took them.
+         */
+        public long getSupersededCount() {
+            return mSupersededCount;
+        }
+
+        /**
+         * Returns the number of frames skipped because their buffer wasn't known to the pool.
+         */
+        public long getUnknownBufferCount() {
+            return mUnknownBufferCount;
+        }
+
+        /**
+         * Returns the number of frames the detector ran on.
+         */
+        public long getProcessedCount() {
+            return mProcessedCount;
+        }
+
+        /**
+         * Returns the rate at which the camera delivered frames during the current (or last)
+         * camera session.
+         */
+        public float getDeliveredFps() {
+            return mDeliveredFps;
+        }
+
+        /**
+         * Returns this snapshot as a JSON object, for exporting it from the field.
+         */
+        public JSONObject toJson() throws JSONException {
+            JSONObject stages = new JSONObject();
+            for (Stage stage : Stage.values()) {
+                stages.put(stage.name(), getHistogram(stage).toJson());
+            }
+            return new JSONObject()
+                    .put("delivered", mDeliveredCount)
+                    .put("superseded", mSupersededCount)
+                    .put("unknownBuffer", mUnknownBufferCount)
+                    .put("processed", mProcessedCount)
+                    .put("deliveredFps", (double) mDeliveredFps)
+                    .put("stages", stages);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("FrameStats{")
+                    .append("delivered=").append(mDeliveredCount)
+                    .append(", superseded=").append(mSupersededCount)
+                    .append(", unknownBuffer=").append(mUnknownBufferCount)
+                    .append(", processed=").append(mProcessedCount)
+                    .append(", deliveredFps=").append(mDeliveredFps);
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = getHistogram(stage);
+                builder.append(", ").append(stage.name())
+                        .append("={n=").append(histogram.getCount())
+                        .append(", mean=").append(histogram.getMeanNanos() / 1000).append("us")
+                        .append(", p95<").append(histogram.getPercentileNanos(95) / 1000)
+                        .append("us}");
+            }
+            return builder.append("}").toString();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.bbbtech.barcodescan;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+/**
+ * Hands the results of several detection workers to a single processor, in frame id order.
+ * <p/>
+ * Each worker registers the frame it takes with {@link #begin(int, FrameSlot)} and reports the
+ * detected items with {@link #complete(int, Frame, SparseArray, boolean)}.  A result is only
+ * delivered once no worker is still busy with an older frame, so the processor (and the tracker
+ * behind it) sees frames in the same order as the camera produced them, one at a time.  The frame
+ * slot stays leased until its result has been delivered, since the detections refer to the frame
+ * metadata held by the slot.
+ * <p/>
+ * A worker with a result still waiting for an older frame has to wait in
+ * {@link #awaitIdle(int)} before taking its next frame.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+final class OrderedDetectionDelivery {
+
+    private static final String TAG = "OrderedDetectionDelivery";
+
+    private final Detector.Processor mProcessor;
+
+    // Per worker state, guarded by this.  A null slot means the worker has nothing in flight.
+    private final FrameSlot[] mSlots;
+    private final Frame[] mFrames;
+    private final SparseArray[] mResults;
+    private final boolean[] mOperational;
+    private final boolean[] mDone;
+
+    private int mLastDeliveredFrameId;
+
+    OrderedDetectionDelivery(Detector.Processor<?> processor, int workerCount) {
+        mProcessor = processor;
+        mSlots = new FrameSlot[workerCount];
+        mFrames = new Frame[workerCount];
+        mResults = new SparseArray[workerCount];
+        mOperational = new boolean[workerCount];
+        mDone = new boolean[workerCount];
+    }
+
+    /**
+     * Blocks until the result of the previous frame of the given worker has been delivered.
+     */
+    synchronized void awaitIdle(int worker) throws InterruptedException {
+        while (mSlots[worker] != null) {
+            wait();
+        }
+    }
+
+    /**
+     * Registers the frame the given worker is about to run detection on.  Frames are normally
+     * registered in frame id order; a frame registered after a newer one has been delivered only
+     * has its slot recycled.
+     */
+    synchronized void begin(int worker, FrameSlot slot) {
+        mSlots[worker] = slot;
+        mDone[worker] = false;
+    }
+
+    /**
+     * Reports the result of the given worker, and delivers every result that is no longer
+     * waiting for an older frame.
+     *
+     * @param results the detected items, or null if detection failed
+     */
+    synchronized void complete(int worker, Frame frame, SparseArray<?> results,
+                               boolean operational) {
+        mFrames[worker] = frame;
+        mResults[worker] = results;
+        mOperational[worker] = operational;
+        mDone[worker] = true;
+
+        while (true) {
+            int oldest = -1;
+            for (int i = 0; i < mSlots.length; ++i) {
+                if (mSlots[i] != null
+                        && (oldest == -1 || mSlots[i].frameId < mSlots[oldest].frameId)) {
+                    oldest = i;
+                }
+            }
+            if (oldest == -1 || !mDone[oldest]) {
+                break;
+            }
+            deliver(oldest);
+        }
+    }
+
+    private void deliver(int worker) {
+        FrameSlot slot = mSlots[worker];
+        SparseArray results = mResults[worker];
+
+        // A result older than one that is already delivered would confuse the tracker, so it is
+        // dropped just like a frame the detector never got to see.
+        if (results != null && slot.frameId > mLastDeliveredFrameId) {
+            mLastDeliveredFrameId = slot.frameId;
+            try {
+                mProcessor.receiveDetections(new Detector.Detections(
+                        results, mFrames[worker].getMetadata(), mOperational[worker]));
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from processor.", t);
+            }
+        }
+
+        mSlots[worker] = null;
+        mFrames[worker] = null;
+        mResults[worker] = null;
+        slot.recycle();
+        notifyAll();
+    }
+}
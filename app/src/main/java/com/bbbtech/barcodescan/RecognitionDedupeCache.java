@@ -0,0 +1,180 @@
+package com.bbbtech.barcodescan;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Bounded cache of recently recognized barcodes, keyed by format and raw value, see
+ * {@link BarcodeTracker#setDedupePolicy}.
+ * <p/>
+ * Entries live in a chained hash table threaded on a doubly linked list in order of use, so a
+ * lookup and its update take constant time.  A hit allocates nothing, since the key is compared
+ * field by field and the hash code of the raw value is cached by the string.  Once the cache is
+ * full, a new value takes over the entry of the least recently used one.  Each entry expires on
+ * its own, after the time to live the policy gave it.
+ */
+final class RecognitionDedupeCache {
+
+    private static final class Entry {
+        int format;
+        String rawValue;
+        int hash;
+        long expiresAtMillis;
+        Entry nextInBucket;
+        Entry newer;
+        Entry older;
+    }
+
+    private final int mCapacity;
+    private final Entry[] mBuckets;
+    private final int mBucketMask;
+
+    // Guarded by this.  Least and most recently used entries.
+    private Entry mOldest;
+    private Entry mNewest;
+    private int mSize;
+
+    RecognitionDedupeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid dedupe cache capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        int bucketCount = Integer.highestOneBit(Math.max(1, capacity * 4 / 3 - 1)) << 1;
+        mBuckets = new Entry[bucketCount];
+        mBucketMask = bucketCount - 1;
+    }
+
+    /**
+     * Returns whether the given barcode was recognized within its time to live, and should be
+     * suppressed.  Otherwise it is recorded as recognized now, with the given time to live.
+     *
+     * @param ttlMillis time to live in milliseconds, {@link BarcodeDedupePolicy#FOREVER} for no
+     *                  expiry, or 0 or less to leave the barcode out of the cache
+     */
+    boolean checkAndRecord(Barcode barcode, long nowMillis, long ttlMillis) {
+        return checkAndRecord(barcode, nowMillis, ttlMillis, false);
+    }
+
+    /**
+     * Like {@link #checkAndRecord(Barcode, long, long)}, but a suppressed barcode also has its
+     * time to live start over, so that a value seen continuously stays suppressed.
+     */
+    boolean checkAndRefresh(Barcode barcode, long nowMillis, long ttlMillis) {
+        return checkAndRecord(barcode, nowMillis, ttlMillis, true);
+    }
+
+    private synchronized boolean checkAndRecord(Barcode barcode, long nowMillis, long ttlMillis,
+                                                boolean refresh) {
+        String rawValue = barcode.rawValue != null ? barcode.rawValue : "";
+        int hash = spread(31 * barcode.format + rawValue.hashCode());
+        int bucket = hash & mBucketMask;
+
+        Entry entry = mBuckets[bucket];
+        while (entry != null && (entry.hash != hash || entry.format != barcode.format
+                || !entry.rawValue.equals(rawValue))) {
+            entry = entry.nextInBucket;
+        }
+        if (entry != null) {
+            if (nowMillis < entry.expiresAtMillis) {
+                if (refresh && ttlMillis > 0) {
+                    entry.expiresAtMillis = expiry(nowMillis, ttlMillis);
+                }
+                moveToNewest(entry);
+                return true;
+            }
+            remove(entry);
+        }
+        if (ttlMillis <= 0) {
+            return false;
+        }
+
+        if (mSize == mCapacity) {
+            entry = mOldest;
+            remove(entry);
+        } else {
+            entry = new Entry();
+        }
+        entry.format = barcode.format;
+        entry.rawValue = rawValue;
+        entry.hash = hash;
+        entry.expiresAtMillis = expiry(nowMillis, ttlMillis);
+        entry.nextInBucket = mBuckets[bucket];
+        mBuckets[bucket] = entry;
+        linkAsNewest(entry);
+        mSize++;
+        return false;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mBuckets.length; ++i) {
+            mBuckets[i] = null;
+        }
+        mOldest = null;
+        mNewest = null;
+        mSize = 0;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    private void remove(Entry entry) {
+        int bucket = entry.hash & mBucketMask;
+        Entry previous = null;
+        Entry current = mBuckets[bucket];
+        while (current != entry) {
+            previous = current;
+            current = current.nextInBucket;
+        }
+        if (previous == null) {
+            mBuckets[bucket] = entry.nextInBucket;
+        } else {
+            previous.nextInBucket = entry.nextInBucket;
+        }
+        entry.nextInBucket = null;
+        unlink(entry);
+        entry.rawValue = null;
+        mSize--;
+    }
+
+    private void moveToNewest(Entry entry) {
+        if (entry != mNewest) {
+            unlink(entry);
+            linkAsNewest(entry);
+        }
+    }
+
+    private void linkAsNewest(Entry entry) {
+        entry.older = mNewest;
+        entry.newer = null;
+        if (mNewest != null) {
+            mNewest.newer = entry;
+        } else {
+            mOldest = entry;
+        }
+        mNewest = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            mOldest = entry.newer;
+        }
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            mNewest = entry.older;
+        }
+        entry.older = null;
+        entry.newer = null;
+    }
+
+    private static long expiry(long nowMillis, long ttlMillis) {
+        return (ttlMillis >= BarcodeDedupePolicy.FOREVER - nowMillis)
+                ? Long.MAX_VALUE : nowMillis + ttlMillis;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
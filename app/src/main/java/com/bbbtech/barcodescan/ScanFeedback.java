@@ -0,0 +1,210 @@
+package com.bbbtech.barcodescan;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Beep and vibration played when a barcode is recognized, see
+ * {@link BarcodeTracker#BarcodeTracker(BarcodeRecognizer, ScanFeedback)}.
+ * <p/>
+ * The beep is decoded once into a {@link SoundPool} when the feedback is built, so playing it
+ * costs neither file I/O nor decoder setup.  {@link #play()} only checks the rate limit and posts
+ * to a thread of the feedback, so it returns at once and the recognition never waits for audio or
+ * the vibrator.  Feedback arriving sooner than the minimum interval after the last one is
+ * dropped, so that a burst of recognitions gives a single beep.
+ * <p/>
+ * Vibration requires the {@code android.permission.VIBRATE} permission in the manifest of the
+ * app; without it, only the beep is played.
+ */
+public final class ScanFeedback {
+
+    private static final String TAG = "ScanFeedback";
+
+    private static ScanFeedback sDefaultBeep;
+
+    private final boolean mBeepEnabled;
+    private final long mVibrationMillis;
+    private final long mMinIntervalMillis;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final SoundPool mSoundPool;
+    private final Vibrator mVibrator;
+    private final int mBeepSoundId;
+
+    // Set by the sound pool once the beep is decoded.
+    private volatile boolean mBeepLoaded;
+    private volatile boolean mReleased;
+
+    private final AtomicLong mLastPlayedMillis = new AtomicLong(Long.MIN_VALUE / 2);
+
+    private final Runnable mPlay = new Runnable() {
+        @Override
+        public void run() {
+            if (mReleased) {
+                return;
+            }
+            if (mSoundPool != null && mBeepLoaded) {
+                mSoundPool.play(mBeepSoundId, 1f, 1f, 1, 0, 1f);
+            }
+            if (mVibrator != null) {
+                try {
+                    mVibrator.vibrate(mVibrationMillis);
+                } catch (SecurityException e) {
+                    Log.w(TAG, "Vibration needs the VIBRATE permission.", e);
+                }
+            }
+        }
+    };
+
+    private ScanFeedback(Context context, boolean beepEnabled, long vibrationMillis,
+                         long minIntervalMillis) {
+        mBeepEnabled = beepEnabled;
+        mVibrationMillis = vibrationMillis;
+        mMinIntervalMillis = minIntervalMillis;
+
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        if (beepEnabled) {
+            mSoundPool = new SoundPool.Builder()
+                    .setMaxStreams(1)
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                            .build())
+                    .build();
+            mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+                @Override
+                public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                    if (status == 0) {
+                        mBeepLoaded = true;
+                    } else {
+                        Log.w(TAG, "Failed to load the beep, status " + status);
+                    }
+                }
+            });
+            mBeepSoundId = mSoundPool.load(context, R.raw.barcode_beep, 1);
+        } else {
+            mSoundPool = null;
+            mBeepSoundId = 0;
+        }
+
+        Vibrator vibrator = null;
+        if (vibrationMillis > 0) {
+            vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+            if (vibrator != null && !vibrator.hasVibrator()) {
+                vibrator = null;
+            }
+        }
+        mVibrator = vibrator;
+    }
+
+    /**
+     * Returns a process wide feedback that only beeps, as used by
+     * {@link BarcodeTracker#BarcodeTracker(Context, BarcodeRecognizer, boolean)}.  It is never
+     * released.
+     */
+    public static synchronized ScanFeedback getDefaultBeep(Context context) {
+        if (sDefaultBeep == null) {
+            sDefaultBeep = new Builder(context.getApplicationContext()).build();
+        }
+        return sDefaultBeep;
+    }
+
+    /**
+     * Plays the feedback, unless the last one was played less than the minimum interval ago.
+     * Never waits.
+     */
+    public void play() {
+        if (mReleased || (!mBeepEnabled && mVibrator == null)) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long last = mLastPlayedMillis.get();
+        if (now - last < mMinIntervalMillis || !mLastPlayedMillis.compareAndSet(last, now)) {
+            return;
+        }
+        mHandler.post(mPlay);
+    }
+
+    /**
+     * Frees the sound pool and stops the feedback thread.  Later calls to {@link #play()} do
+     * nothing.
+     */
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSoundPool != null) {
+                    mSoundPool.release();
+                }
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    /**
+     * Builder for scan feedback.
+     */
+    public static class Builder {
+        private final Context mContext;
+        private boolean mBeepEnabled = true;
+        private long mVibrationMillis;
+        private long mMinIntervalMillis = 150;
+
+        public Builder(Context context) {
+            if (context == null) {
+                throw new IllegalArgumentException("No context supplied.");
+            }
+            mContext = context;
+        }
+
+        /**
+         * Sets whether the beep is played.  Default: true.
+         */
+        public Builder setBeepEnabled(boolean beepEnabled) {
+            mBeepEnabled = beepEnabled;
+            return this;
+        }
+
+        /**
+         * Sets how long the device vibrates, or 0 not to vibrate.  Default: 0.
+         */
+        public Builder setVibration(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("Invalid vibration time: " + millis);
+            }
+            mVibrationMillis = millis;
+            return this;
+        }
+
+        /**
+         * Sets the minimum time between two feedbacks.  Default: 150 ms.
+         */
+        public Builder setMinInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("Invalid feedback interval: " + millis);
+            }
+            mMinIntervalMillis = millis;
+            return this;
+        }
+
+        public ScanFeedback build() {
+            return new ScanFeedback(mContext, mBeepEnabled, mVibrationMillis, mMinIntervalMillis);
+        }
+    }
+}
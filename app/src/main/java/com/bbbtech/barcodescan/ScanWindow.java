@@ -0,0 +1,20 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.Rect;
+
+/**
+ * The part of the camera preview view inside which barcodes are scanned, see
+ * {@link CameraSource#setScanWindow(Rect, int, int)}.  Immutable, so that it can be swapped while
+ * the detection workers are running.
+ */
+final class ScanWindow {
+    final int[] viewRect;
+    final int viewWidth;
+    final int viewHeight;
+
+    ScanWindow(Rect window, int viewWidth, int viewHeight) {
+        this.viewRect = new int[] {window.left, window.top, window.right, window.bottom};
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+    }
+}
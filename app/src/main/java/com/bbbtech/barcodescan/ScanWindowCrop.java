@@ -0,0 +1,143 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.bbbtech.barcodescan.frame.FrameGeometry;
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops preview frames to the scan window before they reach the detector, so that the detector
+ * only scans the part of the frame the user actually sees inside the window.
+ * <p/>
+ * The window is mapped from view coordinates onto the upright frame, then into sensor
+ * coordinates using the frame rotation, and aligned to the NV21 chroma blocks.  That region is
+ * copied into a buffer owned by this stage, and the detection results are translated back into
+ * the coordinates of the full upright frame afterwards.
+ * <p/>
+ * One instance is used per detection worker and only touched from its thread.  The crop buffer
+ * and frame builder are reused for as long as the crop size stays the same.
+ */
+final class ScanWindowCrop {
+    private final int[] mUpright = new int[4];
+    private final int[] mSensor = new int[4];
+
+    // Inputs the current crop was computed for.
+    private ScanWindow mWindow;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mRotation = -1;
+
+    // Aligned crop in sensor coordinates, and its offset in the upright frame.
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+    private int mOffsetX;
+    private int mOffsetY;
+
+    private byte[] mCropData;
+    private Frame.Builder mFrameBuilder;
+
+    /**
+     * Returns the frame to run detection on for the supplied slot, cropped to the window.  Returns
+     * null if the window covers the whole frame or nothing at all, in which case the frame should
+     * be used as it is.
+     */
+    Frame crop(FrameSlot slot, ScanWindow window) {
+        if (getSensorRect(slot, window) == null) {
+            return null;
+        }
+
+        Nv21Utils.crop(slot.data, slot.width, slot.height,
+                mCropLeft, mCropTop, mCropWidth, mCropHeight, mCropData);
+        return mFrameBuilder
+                .setId(slot.frameId)
+                .setTimestampMillis(slot.timestampMillis)
+                .setRotation(slot.rotation)
+                .build();
+    }
+
+    /**
+     * Returns the window in sensor coordinates of the supplied slot, aligned for cropping, or null
+     * if the window covers the whole frame or nothing at all.
+     */
+    int[] getSensorRect(FrameSlot slot, ScanWindow window) {
+        if (window != mWindow || slot.width != mFrameWidth || slot.height != mFrameHeight
+                || slot.rotation != mRotation) {
+            update(window, slot.width, slot.height, slot.rotation);
+        }
+        return (mCropData != null) ? mSensor : null;
+    }
+
+    byte[] getCropData() {
+        return mCropData;
+    }
+
+    int getCropWidth() {
+        return mCropWidth;
+    }
+
+    int getCropHeight() {
+        return mCropHeight;
+    }
+
+    /**
+     * Moves the results detected on the cropped frame back into the coordinates of the full frame.
+     */
+    void translateResults(SparseArray<?> results) {
+        for (int i = 0; i < results.size(); ++i) {
+            Object item = results.valueAt(i);
+            if (item instanceof Barcode && ((Barcode) item).cornerPoints != null) {
+                for (Point point : ((Barcode) item).cornerPoints) {
+                    point.x += mOffsetX;
+                    point.y += mOffsetY;
+                }
+            }
+        }
+    }
+
+    private void update(ScanWindow window, int frameWidth, int frameHeight, int rotation) {
+        mWindow = window;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        mRotation = rotation;
+
+        int uprightWidth = FrameGeometry.uprightWidth(frameWidth, frameHeight, rotation);
+        int uprightHeight = FrameGeometry.uprightHeight(frameWidth, frameHeight, rotation);
+        FrameGeometry.viewToUpright(window.viewRect, window.viewWidth, window.viewHeight,
+                uprightWidth, uprightHeight, mUpright);
+        FrameGeometry.uprightToSensor(mUpright, rotation, frameWidth, frameHeight, mSensor);
+        FrameGeometry.alignToChroma(mSensor, frameWidth, frameHeight);
+
+        int cropWidth = mSensor[FrameGeometry.RIGHT] - mSensor[FrameGeometry.LEFT];
+        int cropHeight = mSensor[FrameGeometry.BOTTOM] - mSensor[FrameGeometry.TOP];
+        if (cropWidth <= 0 || cropHeight <= 0
+                || (cropWidth >= (frameWidth & ~1) && cropHeight >= (frameHeight & ~1))) {
+            mCropData = null;
+            mFrameBuilder = null;
+            return;
+        }
+
+        // The aligned crop may be slightly larger than the window, so the offset is taken from
+        // the aligned sensor rectangle rather than from the window itself.
+        FrameGeometry.sensorToUpright(mSensor, rotation, frameWidth, frameHeight, mUpright);
+        mOffsetX = mUpright[FrameGeometry.LEFT];
+        mOffsetY = mUpright[FrameGeometry.TOP];
+        mCropLeft = mSensor[FrameGeometry.LEFT];
+        mCropTop = mSensor[FrameGeometry.TOP];
+
+        if (mCropData == null || cropWidth != mCropWidth || cropHeight != mCropHeight) {
+            mCropData = new byte[Nv21Utils.getBufferSize(cropWidth, cropHeight)];
+            mFrameBuilder = new Frame.Builder().setImageData(
+                    ByteBuffer.wrap(mCropData), cropWidth, cropHeight, ImageFormat.NV21);
+        }
+        mCropWidth = cropWidth;
+        mCropHeight = cropHeight;
+    }
+}
@@ -0,0 +1,76 @@
+package com.bbbtech.barcodescan;
+
+import com.bbbtech.barcodescan.frame.LumaStats;
+
+import java.util.Arrays;
+
+/**
+ * Drops motion blurred frames before they reach the detector.
+ * <p/>
+ * Sharpness is measured with {@link LumaStats#sharpness}, the mean squared Laplacian of the luma
+ * plane on a sparse grid inside the scanned region.  The threshold
+ * adapts to the scene: a frame passes if it is at least {@link #THRESHOLD_RATIO} as sharp as the
+ * upper quartile of the recent frames, so that a sweep over the package only sends the sharpest
+ * frames to the detector whatever the lighting and texture.  A run of gated frames is capped, so
+ * that a scene that never gets sharper still gets decoded now and then.
+ * <p/>
+ * The gate is shared by all detection workers of a camera source.
+ */
+final class SharpnessGate {
+
+    // Number of recent scores the threshold is learned from.
+    private static final int HISTORY_SIZE = 64;
+    // Frames passed unconditionally until this many scores have been collected.
+    private static final int WARM_UP_FRAMES = 16;
+    // Fraction of the upper quartile of recent scores a frame has to reach.
+    private static final float THRESHOLD_RATIO = 0.6f;
+    // After this many gated frames in a row, the next frame passes anyway.
+    private static final int MAX_CONSECUTIVE_GATED = 10;
+
+    // Guarded by this.
+    private final float[] mHistory = new float[HISTORY_SIZE];
+    private final float[] mSorted = new float[HISTORY_SIZE];
+    private int mHistoryCount;
+    private int mHistoryNext;
+    private int mConsecutiveGated;
+    private long mGatedCount;
+    private long mPassedCount;
+
+    /**
+     * Records the score of a frame and decides whether the frame is sharp enough to be decoded.
+     */
+    synchronized boolean accept(float score) {
+        boolean pass;
+        if (mHistoryCount < WARM_UP_FRAMES || mConsecutiveGated >= MAX_CONSECUTIVE_GATED) {
+            pass = true;
+        } else {
+            System.arraycopy(mHistory, 0, mSorted, 0, mHistoryCount);
+            Arrays.sort(mSorted, 0, mHistoryCount);
+            float upperQuartile = mSorted[(mHistoryCount * 3) / 4];
+            pass = score >= upperQuartile * THRESHOLD_RATIO;
+        }
+
+        mHistory[mHistoryNext] = score;
+        mHistoryNext = (mHistoryNext + 1) % HISTORY_SIZE;
+        if (mHistoryCount < HISTORY_SIZE) {
+            mHistoryCount++;
+        }
+
+        if (pass) {
+            mPassedCount++;
+            mConsecutiveGated = 0;
+        } else {
+            mGatedCount++;
+            mConsecutiveGated++;
+        }
+        return pass;
+    }
+
+    synchronized long getGatedCount() {
+        return mGatedCount;
+    }
+
+    synchronized long getPassedCount() {
+        return mPassedCount;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bbbtech.barcodescan;
+
+import com.bbbtech.barcodescan.frame.LumaStats;
+
+/**
+ * Skips detection while the camera keeps looking at the same empty scene, e.g. with the scanner
+ * resting on a counter.
+ * <p/>
+ * Every frame is reduced to a small luma thumbnail.  When a frame produces no detections, its
+ * thumbnail becomes the reference; following frames whose thumbnail differs from the reference by
+ * less than {@link #MAX_MEAN_DIFFERENCE} gray levels on average are skipped.  A frame with
+ * detections clears the reference, and a detection is forced at least once per configured
+ * interval so that a change the thumbnail cannot show is never missed for long.
+ * <p/>
+ * The gate is shared by all detection workers of a camera source; each worker computes the
+ * thumbnails into its own buffer.
+ */
+final class StaticSceneGate {
+    static final int THUMBNAIL_WIDTH = 32;
+    static final int THUMBNAIL_HEIGHT = 24;
+    static final int THUMBNAIL_SIZE = THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT;
+
+    // Pixels averaged per thumbnail cell, in both directions.
+    private static final int CELL_SAMPLES = 4;
+    // Average absolute difference in gray levels below which the scene is considered unchanged.
+    private static final int MAX_MEAN_DIFFERENCE = 4;
+
+    private final long mForcedDetectionIntervalMillis;
+
+    // Guarded by this.
+    private final byte[] mReference = new byte[THUMBNAIL_SIZE];
+    private boolean mHasReference;
+    private long mLastDetectionMillis;
+    private long mSkippedCount;
+
+    StaticSceneGate(long forcedDetectionIntervalMillis) {
+        mForcedDetectionIntervalMillis = forcedDetectionIntervalMillis;
+    }
+
+    /**
+     * Reduces the given region of the luma plane to a thumbnail, averaging a few samples per cell.
+     *
+     * @param thumbnail destination of {@link #THUMBNAIL_SIZE} bytes
+     */
+    static void thumbnail(byte[] luma, int width, int left, int top, int right, int bottom,
+                          byte[] thumbnail) {
+        LumaStats.thumbnail(luma, width, left, top, right, bottom,
+                THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, CELL_SAMPLES, thumbnail);
+    }
+
+    /**
+     * Returns whether a frame with the given thumbnail should be detected.
+     */
+    synchronized boolean accept(byte[] thumbnail, long timestampMillis) {
+        if (!mHasReference
+                || timestampMillis - mLastDetectionMillis >= mForcedDetectionIntervalMillis) {
+            return true;
+        }
+
+        int difference = LumaStats.sumOfAbsoluteDifferences(thumbnail, mReference, THUMBNAIL_SIZE);
+        if (difference >= MAX_MEAN_DIFFERENCE * THUMBNAIL_SIZE) {
+            return true;
+        }
+
+        mSkippedCount++;
+        return false;
+    }
+
+    /**
+     * Records the outcome of detection on a frame that passed the gate.  Only a frame actually
+     * detected restarts the forced detection interval, since a frame accepted here may still be
+     * skipped by another gate.
+     */
+    synchronized void onDetected(byte[] thumbnail, boolean empty, long timestampMillis) {
+        mLastDetectionMillis = Math.max(mLastDetectionMillis, timestampMillis);
+        if (empty) {
+            System.arraycopy(thumbnail, 0, mReference, 0, THUMBNAIL_SIZE);
+            mHasReference = true;
+        } else {
+            mHasReference = false;
+        }
+    }
+
+    synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+}
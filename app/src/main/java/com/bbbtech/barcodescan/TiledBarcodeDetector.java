@@ -0,0 +1,360 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.bbbtech.barcodescan.frame.FrameGeometry;
+import com.bbbtech.barcodescan.frame.Nv21Utils;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Barcode detector for large frames with many barcodes, e.g. shelves and cartons scanned at a
+ * high preview resolution.  The frame is split into a grid of overlapping tiles, which are
+ * detected in parallel on a bounded fork/join pool, each by a detector of its own.  The results
+ * are moved back into frame coordinates, and a barcode found twice in the overlap of two tiles is
+ * reported once.
+ * <p/>
+ * Like any detector it can be handed to {@link CameraSource.Builder} or given a processor, and
+ * the merged results reach the processor as usual {@link Detector.Detections}.
+ * <p/>
+ * Tiles only carry the luma of the frame, with neutral chroma, which is all barcode detection
+ * looks at.  The grid is reduced for frames too small to give every tile {@link #MIN_TILE_SIZE}
+ * pixels in both directions, down to a single detection of the whole frame.  A barcode is only
+ * found across a tile border if it fits in the overlap, so the overlap should be at least the
+ * size of the largest expected barcode.
+ */
+public class TiledBarcodeDetector extends Detector<Barcode> {
+
+    /**
+     * Smallest tile size along either axis, in pixels, before the overlap is added.
+     */
+    public static final int MIN_TILE_SIZE = 320;
+
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private final Detector<Barcode>[] mDetectors;
+    private final int mColumns;
+    private final int mRows;
+    private final float mOverlap;
+    private final ForkJoinPool mPool;
+
+    // Tile layout for the current frame size and rotation.  Only touched by the calling thread,
+    // apart from the tile tasks, which each touch the entries of their own tile.
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mFrameRotation = -1;
+    private int mTileCount;
+    private int[][] mTileRects;
+    private int[][] mTileOffsets;
+    private byte[][] mTileData;
+    private Frame.Builder[] mTileFrameBuilders;
+    private SparseArray<Barcode>[] mTileResults;
+
+    private final int[] mUpright = new int[4];
+
+    @SuppressWarnings("unchecked")
+    private TiledBarcodeDetector(CameraSource.DetectorFactory factory, int columns, int rows,
+                                 float overlap, int parallelism) {
+        mColumns = columns;
+        mRows = rows;
+        mOverlap = overlap;
+        mDetectors = new Detector[columns * rows];
+        for (int i = 0; i < mDetectors.length; ++i) {
+            mDetectors[i] = (Detector<Barcode>) factory.create();
+        }
+        mPool = new ForkJoinPool(parallelism);
+        mTileResults = new SparseArray[mDetectors.length];
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        Frame.Metadata metadata = frame.getMetadata();
+        ByteBuffer buffer = frame.getGrayscaleImageData();
+        if (buffer == null) {
+            return mDetectors[0].detect(frame);
+        }
+
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        if (width != mFrameWidth || height != mFrameHeight
+                || metadata.getRotation() != mFrameRotation) {
+            layout(width, height, metadata.getRotation());
+        }
+        if (mTileCount == 1) {
+            return mDetectors[0].detect(frame);
+        }
+
+        mPool.invoke(new TileTask(buffer, metadata, 0, mTileCount));
+        return merge();
+    }
+
+    @Override
+    public boolean isOperational() {
+        for (Detector<Barcode> detector : mDetectors) {
+            if (!detector.isOperational()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void release() {
+        mPool.shutdown();
+        for (Detector<Barcode> detector : mDetectors) {
+            detector.release();
+        }
+        super.release();
+    }
+
+    /**
+     * Splits a frame of the given size into tiles, in sensor coordinates.
+     */
+    private void layout(int width, int height, int rotation) {
+        mFrameWidth = width;
+        mFrameHeight = height;
+        mFrameRotation = rotation;
+
+        int columns = Math.max(1, Math.min(mColumns, width / MIN_TILE_SIZE));
+        int rows = Math.max(1, Math.min(mRows, height / MIN_TILE_SIZE));
+        mTileCount = columns * rows;
+        mTileRects = new int[mTileCount][];
+        mTileOffsets = new int[mTileCount][];
+        mTileData = new byte[mTileCount][];
+        mTileFrameBuilders = new Frame.Builder[mTileCount];
+        if (mTileCount == 1) {
+            return;
+        }
+
+        int tileWidth = width / columns;
+        int tileHeight = height / rows;
+        int overlapX = (int) (tileWidth * mOverlap);
+        int overlapY = (int) (tileHeight * mOverlap);
+        for (int row = 0; row < rows; ++row) {
+            for (int column = 0; column < columns; ++column) {
+                int[] rect = {
+                        Math.max(0, column * tileWidth - overlapX),
+                        Math.max(0, row * tileHeight - overlapY),
+                        Math.min(width, (column + 1) * tileWidth + overlapX),
+                        Math.min(height, (row + 1) * tileHeight + overlapY),
+                };
+                FrameGeometry.alignToChroma(rect, width, height);
+
+                int tile = row * columns + column;
+                int tileWidthAligned = rect[FrameGeometry.RIGHT] - rect[FrameGeometry.LEFT];
+                int tileHeightAligned = rect[FrameGeometry.BOTTOM] - rect[FrameGeometry.TOP];
+                byte[] data = new byte[Nv21Utils.getBufferSize(tileWidthAligned, tileHeightAligned)];
+                Arrays.fill(data, tileWidthAligned * tileHeightAligned, data.length, NEUTRAL_CHROMA);
+
+                // Results of a tile are upright relative to the tile, so they are moved by the
+                // upright position of the tile.
+                FrameGeometry.sensorToUpright(rect, rotation, width, height, mUpright);
+
+                mTileRects[tile] = rect;
+                mTileOffsets[tile] = new int[]{
+                        mUpright[FrameGeometry.LEFT], mUpright[FrameGeometry.TOP]};
+                mTileData[tile] = data;
+                mTileFrameBuilders[tile] = new Frame.Builder().setImageData(
+                        ByteBuffer.wrap(data), tileWidthAligned, tileHeightAligned,
+                        ImageFormat.NV21);
+            }
+        }
+    }
+
+    private void detectTile(int tile, ByteBuffer buffer, Frame.Metadata metadata) {
+        int[] rect = mTileRects[tile];
+        int left = rect[FrameGeometry.LEFT];
+        int top = rect[FrameGeometry.TOP];
+        int width = rect[FrameGeometry.RIGHT] - left;
+        int height = rect[FrameGeometry.BOTTOM] - top;
+        byte[] data = mTileData[tile];
+
+        // Copies the luma rows of the tile, from the array if there is one.
+        if (buffer.hasArray()) {
+            byte[] src = buffer.array();
+            int offset = buffer.arrayOffset() + top * mFrameWidth + left;
+            for (int y = 0; y < height; ++y, offset += mFrameWidth) {
+                System.arraycopy(src, offset, data, y * width, width);
+            }
+        } else {
+            ByteBuffer src = buffer.duplicate();
+            for (int y = 0; y < height; ++y) {
+                src.clear();
+                src.position((top + y) * mFrameWidth + left);
+                src.get(data, y * width, width);
+            }
+        }
+
+        Frame tileFrame = mTileFrameBuilders[tile]
+                .setId(metadata.getId())
+                .setTimestampMillis(metadata.getTimestampMillis())
+                .setRotation(metadata.getRotation())
+                .build();
+        mTileResults[tile] = mDetectors[tile].detect(tileFrame);
+    }
+
+    /**
+     * Moves the tile results into frame coordinates and drops the duplicates found in overlaps.
+     */
+    private SparseArray<Barcode> merge() {
+        SparseArray<Barcode> merged = new SparseArray<>();
+        // Barcodes kept so far and their boxes, in the same order.
+        List<Barcode> kept = new ArrayList<>();
+        List<Rect> boxes = new ArrayList<>();
+        for (int tile = 0; tile < mTileCount; ++tile) {
+            SparseArray<Barcode> results = mTileResults[tile];
+            mTileResults[tile] = null;
+            if (results == null) {
+                continue;
+            }
+
+            int[] offset = mTileOffsets[tile];
+            for (int i = 0; i < results.size(); ++i) {
+                Barcode barcode = results.valueAt(i);
+                if (barcode == null) {
+                    continue;
+                }
+                if (barcode.cornerPoints != null) {
+                    for (Point point : barcode.cornerPoints) {
+                        point.x += offset[0];
+                        point.y += offset[1];
+                    }
+                }
+
+                Rect box = barcode.getBoundingBox();
+                if (isDuplicate(kept, boxes, barcode, box)) {
+                    continue;
+                }
+
+                // Keeps the id of the tile detector, unless another tile already used it.
+                int id = results.keyAt(i);
+                while (merged.indexOfKey(id) >= 0) {
+                    id = (id + 1) & Integer.MAX_VALUE;
+                }
+                merged.put(id, barcode);
+                kept.add(barcode);
+                boxes.add(box);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Returns whether a barcode with the same value overlapping the supplied box was already
+     * merged.  Equal barcodes next to each other are kept apart.
+     */
+    private static boolean isDuplicate(List<Barcode> kept, List<Rect> boxes, Barcode barcode,
+                                       Rect box) {
+        for (int i = 0; i < kept.size(); ++i) {
+            Barcode other = kept.get(i);
+            if (other.format == barcode.format
+                    && TextUtils.equals(other.rawValue, barcode.rawValue)
+                    && Rect.intersects(boxes.get(i), box)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Detects a range of tiles, splitting it until each task has a single tile.
+     */
+    private class TileTask extends RecursiveAction {
+        private final ByteBuffer mBuffer;
+        private final Frame.Metadata mMetadata;
+        private final int mStart;
+        private final int mEnd;
+
+        TileTask(ByteBuffer buffer, Frame.Metadata metadata, int start, int end) {
+            mBuffer = buffer;
+            mMetadata = metadata;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart == 1) {
+                detectTile(mStart, mBuffer, mMetadata);
+                return;
+            }
+            int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new TileTask(mBuffer, mMetadata, mStart, middle),
+                    new TileTask(mBuffer, mMetadata, middle, mEnd));
+        }
+    }
+
+    /**
+     * Builder for a tiled barcode detector.
+     */
+    public static class Builder {
+        private final CameraSource.DetectorFactory mFactory;
+        private int mColumns = 2;
+        private int mRows = 2;
+        private float mOverlap = 0.2f;
+        private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @param factory creates the detector of each tile; each call must return a new
+         *                barcode detector instance
+         */
+        public Builder(CameraSource.DetectorFactory factory) {
+            if (factory == null) {
+                throw new IllegalArgumentException("No detector factory supplied.");
+            }
+            mFactory = factory;
+        }
+
+        /**
+         * Sets the number of tiles across and down the frame, in sensor orientation.  Default:
+         * 2 x 2.
+         */
+        public Builder setGrid(int columns, int rows) {
+            if (columns < 1 || rows < 1) {
+                throw new IllegalArgumentException("Invalid tile grid: " + columns + "x" + rows);
+            }
+            mColumns = columns;
+            mRows = rows;
+            return this;
+        }
+
+        /**
+         * Sets how far each tile reaches into its neighbours, as a fraction of the tile size.
+         * Default: 0.2.
+         */
+        public Builder setOverlap(float overlap) {
+            if (overlap < 0 || overlap > 1) {
+                throw new IllegalArgumentException("Invalid tile overlap: " + overlap);
+            }
+            mOverlap = overlap;
+            return this;
+        }
+
+        /**
+         * Sets the number of tiles detected at the same time.  Default: the number of cores.
+         */
+        public Builder setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            }
+            mParallelism = parallelism;
+            return this;
+        }
+
+        public TiledBarcodeDetector build() {
+            return new TiledBarcodeDetector(mFactory, mColumns, mRows, mOverlap, mParallelism);
+        }
+    }
+}
@@ -30,6 +30,8 @@ import java.io.OutputStream;
  *       사용할 것을 추천함.
  *       비전라이브러리엔 바코드의 길이가 6자 미만(혹은 이하)이면 비전라이브러리에서 바코드를 인식하지 못하는 이슈가 있는데
  *       10.x버전에서 수정되었음.
+ *
+ *       비전라이브러리 대신 ZxingBarcodeDetector{@link ZxingBarcodeDetector}를 사용하는 경우엔 호출할 필요 없음.
  */
 public class VisionLibUpdater {
 
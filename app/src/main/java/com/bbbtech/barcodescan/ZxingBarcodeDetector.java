@@ -0,0 +1,221 @@
+package com.bbbtech.barcodescan;
+
+import android.graphics.Point;
+import android.graphics.RectF;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import com.bbbtech.barcodescan.frame.FrameGeometry;
+import com.bbbtech.barcodescan.frame.LumaBarcodeDecoder;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+/**
+ * Barcode detector decoding with the pure Java ZXing readers, as an alternative to the
+ * {@link com.google.android.gms.vision.barcode.BarcodeDetector} of the vision library.
+ * <p/>
+ * Decoding runs in process on the luma plane of the frame, see {@link LumaBarcodeDecoder}, so
+ * it needs neither Google Play services nor the native barcode library that
+ * {@link VisionLibUpdater} copies into place.  The decoding itself is plain Java and can be used
+ * on the JVM through {@link LumaBarcodeDecoder}; this detector wraps it in the vision library
+ * {@link Detector} API, so it can be used anywhere the vision detector is, e.g. with
+ * {@link BarcodeCropFocusingProcessor} and {@link CameraSource}.
+ * <p/>
+ * A frame backed by an array, e.g. a camera1 NV21 buffer, is decoded in place.  The direct luma
+ * plane of a camera2 frame is read from its buffer, copying out only the searched region.
+ * <p/>
+ * At most one barcode is detected per frame.  Its id is derived from its format and value, so the
+ * same barcode keeps its id from frame to frame and a different barcode shows up as a new item.
+ * A detector must only be used by one thread at a time; give each detection worker its own, see
+ * {@link CameraSource.Builder#setDetectionWorkers(int, CameraSource.DetectorFactory)}.
+ */
+public class ZxingBarcodeDetector extends Detector<Barcode> {
+
+    // ZXing formats and the matching vision library formats.
+    private static final BarcodeFormat[] ZXING_FORMATS = {
+            BarcodeFormat.CODE_128, BarcodeFormat.CODE_39, BarcodeFormat.CODE_93,
+            BarcodeFormat.CODABAR, BarcodeFormat.DATA_MATRIX, BarcodeFormat.EAN_13,
+            BarcodeFormat.EAN_8, BarcodeFormat.ITF, BarcodeFormat.QR_CODE, BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E, BarcodeFormat.PDF_417, BarcodeFormat.AZTEC,
+    };
+    private static final int[] VISION_FORMATS = {
+            Barcode.CODE_128, Barcode.CODE_39, Barcode.CODE_93,
+            Barcode.CODABAR, Barcode.DATA_MATRIX, Barcode.EAN_13,
+            Barcode.EAN_8, Barcode.ITF, Barcode.QR_CODE, Barcode.UPC_A,
+            Barcode.UPC_E, Barcode.PDF417, Barcode.AZTEC,
+    };
+
+    private static final int SUPPORTED_FORMATS = supportedFormats();
+
+    private final LumaBarcodeDecoder mDecoder;
+
+    // Part of the upright frame searched, as fractions of its size, or null for the whole frame.
+    private final RectF mCropRegion;
+    private final int[] mRegion = new int[4];
+
+    private ZxingBarcodeDetector(int formats, @Nullable RectF cropRegion, boolean tryHarder) {
+        EnumSet<BarcodeFormat> zxingFormats = EnumSet.noneOf(BarcodeFormat.class);
+        for (int i = 0; i < VISION_FORMATS.length; ++i) {
+            if (formats == Barcode.ALL_FORMATS || (formats & VISION_FORMATS[i]) != 0) {
+                zxingFormats.add(ZXING_FORMATS[i]);
+            }
+        }
+        if (zxingFormats.isEmpty()) {
+            throw new IllegalArgumentException("No supported barcode format: " + formats);
+        }
+        mDecoder = new LumaBarcodeDecoder(zxingFormats, tryHarder);
+        mCropRegion = cropRegion;
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        SparseArray<Barcode> barcodes = new SparseArray<>();
+        Frame.Metadata metadata = frame.getMetadata();
+        ByteBuffer buffer = frame.getGrayscaleImageData();
+        if (buffer == null) {
+            return barcodes;
+        }
+
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = metadata.getRotation();
+        int[] region = null;
+        if (mCropRegion != null) {
+            int uprightWidth = FrameGeometry.uprightWidth(width, height, rotation);
+            int uprightHeight = FrameGeometry.uprightHeight(width, height, rotation);
+            mRegion[FrameGeometry.LEFT] = (int) (mCropRegion.left * uprightWidth);
+            mRegion[FrameGeometry.TOP] = (int) (mCropRegion.top * uprightHeight);
+            mRegion[FrameGeometry.RIGHT] = (int) Math.ceil(mCropRegion.right * uprightWidth);
+            mRegion[FrameGeometry.BOTTOM] = (int) Math.ceil(mCropRegion.bottom * uprightHeight);
+            region = mRegion;
+        }
+
+        LumaBarcodeDecoder.Result result;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0
+                && buffer.array().length >= width * height) {
+            result = mDecoder.decode(buffer.array(), width, height, rotation, region);
+        } else {
+            result = mDecoder.decode(buffer, width, height, rotation, region);
+        }
+        if (result != null && toVisionFormat(result.format) != Barcode.ALL_FORMATS) {
+            Barcode barcode = toBarcode(result);
+            barcodes.append(getId(barcode), barcode);
+        }
+        return barcodes;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return true;
+    }
+
+    private static Barcode toBarcode(LumaBarcodeDecoder.Result result) {
+        Barcode barcode = new Barcode();
+        barcode.format = toVisionFormat(result.format);
+        barcode.rawValue = result.text;
+        barcode.displayValue = result.text;
+        barcode.valueFormat = getValueFormat(barcode.format, result.text);
+
+        int left = result.box[FrameGeometry.LEFT];
+        int top = result.box[FrameGeometry.TOP];
+        int right = result.box[FrameGeometry.RIGHT];
+        int bottom = result.box[FrameGeometry.BOTTOM];
+        barcode.cornerPoints = new Point[]{
+                new Point(left, top), new Point(right, top),
+                new Point(right, bottom), new Point(left, bottom),
+        };
+        return barcode;
+    }
+
+    private static int supportedFormats() {
+        int formats = 0;
+        for (int format : VISION_FORMATS) {
+            formats |= format;
+        }
+        return formats;
+    }
+
+    private static int toVisionFormat(BarcodeFormat format) {
+        for (int i = 0; i < ZXING_FORMATS.length; ++i) {
+            if (ZXING_FORMATS[i] == format) {
+                return VISION_FORMATS[i];
+            }
+        }
+        return Barcode.ALL_FORMATS;
+    }
+
+    private static int getValueFormat(int format, String value) {
+        switch (format) {
+            case Barcode.EAN_13:
+                if (value.startsWith("978") || value.startsWith("979")) {
+                    return Barcode.ISBN;
+                }
+                return Barcode.PRODUCT;
+            case Barcode.EAN_8:
+            case Barcode.UPC_A:
+            case Barcode.UPC_E:
+                return Barcode.PRODUCT;
+            default:
+                if (value.startsWith("http://") || value.startsWith("https://")) {
+                    return Barcode.URL;
+                }
+                return Barcode.TEXT;
+        }
+    }
+
+    private static int getId(Barcode barcode) {
+        return (31 * barcode.format + barcode.rawValue.hashCode()) & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Builder for a ZXing barcode detector.
+     */
+    public static class Builder {
+        private int mFormats = Barcode.ALL_FORMATS;
+        private RectF mCropRegion;
+        private boolean mTryHarder;
+
+        /**
+         * Sets the formats to look for, as a combination of the {@link Barcode} format flags.
+         * Fewer formats decode faster.  Default: {@link Barcode#ALL_FORMATS}.
+         *
+         * @throws IllegalArgumentException if the formats include none of the format flags
+         */
+        public Builder setBarcodeFormats(int formats) {
+            if (formats != Barcode.ALL_FORMATS && (formats & SUPPORTED_FORMATS) == 0) {
+                throw new IllegalArgumentException("No supported barcode format: " + formats);
+            }
+            mFormats = formats;
+            return this;
+        }
+
+        /**
+         * Restricts the search to a part of the upright frame, given as fractions of its width
+         * and height, e.g. {@code new RectF(0.1f, 0.35f, 0.9f, 0.65f)}.  Not needed with
+         * {@link CameraSource#setScanWindow}, which already crops the frames.  Default: the
+         * whole frame.
+         */
+        public Builder setCropRegion(@Nullable RectF cropRegion) {
+            mCropRegion = cropRegion;
+            return this;
+        }
+
+        /**
+         * Sets whether the decoder spends more time looking for a barcode in each frame.
+         * Default: false.
+         */
+        public Builder setTryHarder(boolean tryHarder) {
+            mTryHarder = tryHarder;
+            return this;
+        }
+
+        public ZxingBarcodeDetector build() {
+            return new ZxingBarcodeDetector(mFormats, mCropRegion, mTryHarder);
+        }
+    }
+}
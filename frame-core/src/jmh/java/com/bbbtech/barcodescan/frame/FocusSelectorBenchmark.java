@@ -0,0 +1,63 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the focused barcode among the detections of a frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FocusSelectorBenchmark {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int[] CROP_FRAME = {140, 660, 940, 1260};
+
+    @Param({PreviewFrames.VGA, PreviewFrames.XGA, PreviewFrames.HD, PreviewFrames.FULL_HD})
+    public String previewSize;
+
+    @Param({"1", "4", "16"})
+    public int candidateCount;
+
+    private int[] mBoxes;
+    private float mScaleX;
+    private float mScaleY;
+
+    @Setup
+    public void setUp() {
+        // Detections are upright, so a landscape preview is seen rotated in the portrait view.
+        int uprightWidth = PreviewFrames.height(previewSize);
+        int uprightHeight = PreviewFrames.width(previewSize);
+        mScaleX = (float) VIEW_WIDTH / uprightWidth;
+        mScaleY = (float) VIEW_HEIGHT / uprightHeight;
+
+        Random random = new Random(candidateCount);
+        mBoxes = new int[candidateCount * 4];
+        for (int i = 0; i < candidateCount; ++i) {
+            int width = uprightWidth / 8 + random.nextInt(uprightWidth / 4);
+            int height = uprightHeight / 16 + random.nextInt(uprightHeight / 8);
+            int left = random.nextInt(uprightWidth - width);
+            int top = random.nextInt(uprightHeight - height);
+            mBoxes[i * 4] = left;
+            mBoxes[i * 4 + 1] = top;
+            mBoxes[i * 4 + 2] = left + width;
+            mBoxes[i * 4 + 3] = top + height;
+        }
+    }
+
+    @Benchmark
+    public int select() {
+        return FocusSelector.select(mBoxes, candidateCount, mScaleX, mScaleY, CROP_FRAME);
+    }
+}
@@ -0,0 +1,56 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping a scan window from the preview view onto the sensor image and back, as done whenever
+ * the window, the preview size or the rotation changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameGeometryBenchmark {
+
+    // Portrait view of a phone, with the scan window in its middle.
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int[] VIEW_WINDOW = {140, 660, 940, 1260};
+
+    @Param({PreviewFrames.VGA, PreviewFrames.XGA, PreviewFrames.HD, PreviewFrames.FULL_HD})
+    public String previewSize;
+
+    @Param({"0", "1", "2", "3"})
+    public int rotation;
+
+    private int mWidth;
+    private int mHeight;
+    private final int[] mUpright = new int[4];
+    private final int[] mSensor = new int[4];
+
+    @Setup
+    public void setUp() {
+        mWidth = PreviewFrames.width(previewSize);
+        mHeight = PreviewFrames.height(previewSize);
+    }
+
+    @Benchmark
+    public int[] scanWindowToSensor() {
+        int uprightWidth = FrameGeometry.uprightWidth(mWidth, mHeight, rotation);
+        int uprightHeight = FrameGeometry.uprightHeight(mWidth, mHeight, rotation);
+        FrameGeometry.viewToUpright(VIEW_WINDOW, VIEW_WIDTH, VIEW_HEIGHT,
+                uprightWidth, uprightHeight, mUpright);
+        FrameGeometry.uprightToSensor(mUpright, rotation, mWidth, mHeight, mSensor);
+        FrameGeometry.alignToChroma(mSensor, mWidth, mHeight);
+        FrameGeometry.sensorToUpright(mSensor, rotation, mWidth, mHeight, mUpright);
+        return mUpright;
+    }
+}
@@ -0,0 +1,66 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Luma statistics behind the sharpness and static scene gates, measured over the whole frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LumaStatsBenchmark {
+
+    // Thumbnail layout of the static scene gate.
+    private static final int THUMBNAIL_WIDTH = 32;
+    private static final int THUMBNAIL_HEIGHT = 24;
+    private static final int CELL_SAMPLES = 4;
+
+    @Param({PreviewFrames.VGA, PreviewFrames.XGA, PreviewFrames.HD, PreviewFrames.FULL_HD})
+    public String previewSize;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private byte[] mThumbnail;
+    private byte[] mReference;
+
+    @Setup
+    public void setUp() {
+        mWidth = PreviewFrames.width(previewSize);
+        mHeight = PreviewFrames.height(previewSize);
+        mFrame = PreviewFrames.noise(mWidth, mHeight);
+        mThumbnail = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+        mReference = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+        LumaStats.thumbnail(PreviewFrames.noise(mWidth + 2, mHeight), mWidth + 2,
+                0, 0, mWidth, mHeight, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, CELL_SAMPLES,
+                mReference);
+    }
+
+    @Benchmark
+    public float sharpness() {
+        return LumaStats.sharpness(mFrame, mWidth, 0, 0, mWidth, mHeight);
+    }
+
+    @Benchmark
+    public byte[] thumbnail() {
+        LumaStats.thumbnail(mFrame, mWidth, 0, 0, mWidth, mHeight,
+                THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, CELL_SAMPLES, mThumbnail);
+        return mThumbnail;
+    }
+
+    @Benchmark
+    public int thumbnailDifference() {
+        LumaStats.thumbnail(mFrame, mWidth, 0, 0, mWidth, mHeight,
+                THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, CELL_SAMPLES, mThumbnail);
+        return LumaStats.sumOfAbsoluteDifferences(mThumbnail, mReference, mThumbnail.length);
+    }
+}
@@ -0,0 +1,75 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 pixel operations run on every frame: the front camera mirroring, the scan window crop and
+ * the half resolution pass of the decode pyramid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21Benchmark {
+
+    @Param({PreviewFrames.VGA, PreviewFrames.XGA, PreviewFrames.HD, PreviewFrames.FULL_HD})
+    public String previewSize;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private byte[] mRowBuffer;
+
+    // The crop covers the middle half of the frame in both directions, like a typical scan window.
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+    private byte[] mCropData;
+
+    private byte[] mDownscaled;
+
+    @Setup
+    public void setUp() {
+        mWidth = PreviewFrames.width(previewSize);
+        mHeight = PreviewFrames.height(previewSize);
+        mFrame = PreviewFrames.noise(mWidth, mHeight);
+        mRowBuffer = new byte[mWidth];
+
+        mCropLeft = (mWidth / 4) & ~1;
+        mCropTop = (mHeight / 4) & ~1;
+        mCropWidth = (mWidth / 2) & ~1;
+        mCropHeight = (mHeight / 2) & ~1;
+        mCropData = new byte[Nv21Utils.getBufferSize(mCropWidth, mCropHeight)];
+
+        mDownscaled = new byte[Nv21Utils.getBufferSize(
+                Nv21Utils.downscaledSize(mWidth), Nv21Utils.downscaledSize(mHeight))];
+    }
+
+    @Benchmark
+    public byte[] mirrorVertically() {
+        Nv21Utils.mirrorVertically(mFrame, mWidth, mHeight, mRowBuffer);
+        return mFrame;
+    }
+
+    @Benchmark
+    public byte[] crop() {
+        Nv21Utils.crop(mFrame, mWidth, mHeight,
+                mCropLeft, mCropTop, mCropWidth, mCropHeight, mCropData);
+        return mCropData;
+    }
+
+    @Benchmark
+    public byte[] downscale2x() {
+        Nv21Utils.downscale2x(mFrame, mWidth, mHeight, mDownscaled);
+        return mDownscaled;
+    }
+}
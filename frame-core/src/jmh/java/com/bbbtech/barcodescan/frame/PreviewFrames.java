@@ -0,0 +1,35 @@
+package com.bbbtech.barcodescan.frame;
+
+import java.util.Random;
+
+/**
+ * Preview sizes and frame content shared by the benchmarks.
+ */
+final class PreviewFrames {
+
+    // Preview sizes commonly picked by CameraSource on our devices, as benchmark parameters.
+    static final String VGA = "640x480";
+    static final String XGA = "1024x768";
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+
+    private PreviewFrames() {
+    }
+
+    static int width(String previewSize) {
+        return Integer.parseInt(previewSize.substring(0, previewSize.indexOf('x')));
+    }
+
+    static int height(String previewSize) {
+        return Integer.parseInt(previewSize.substring(previewSize.indexOf('x') + 1));
+    }
+
+    /**
+     * Returns an NV21 image of noise, the same for every run so that results are comparable.
+     */
+    static byte[] noise(int width, int height) {
+        byte[] data = new byte[Nv21Utils.getBufferSize(width, height)];
+        new Random(width * 31L + height).nextBytes(data);
+        return data;
+    }
+}
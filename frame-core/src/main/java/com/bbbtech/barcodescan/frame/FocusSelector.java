@@ -0,0 +1,54 @@
+package com.bbbtech.barcodescan.frame;
+
+/**
+ * Picks the detection to focus on: the one inside the crop frame of the preview view.
+ * <p/>
+ * Candidate boxes come in preview coordinates and are scaled into view coordinates, rounded
+ * outwards, before being compared with the crop frame.  Boxes are passed as
+ * {@code {left, top, right, bottom}} quadruples, see {@link FrameGeometry}.
+ */
+public final class FocusSelector {
+
+    private FocusSelector() {
+    }
+
+    /**
+     * Returns the index of the candidate to focus on, or -1 if there is none.  Of several
+     * matching candidates, the last one wins.
+     * <p/>
+     * A candidate matches if its scaled box lies inside the crop frame, or if it is taller than
+     * the crop frame but lies between its left and right edges; the latter happens when two equal
+     * barcodes on top of each other are detected as a single box.
+     *
+     * @param boxes  the candidate boxes, four values per candidate
+     * @param count  the number of candidates
+     * @param scaleX the horizontal scale from preview to view coordinates
+     * @param scaleY the vertical scale from preview to view coordinates
+     * @param crop   the crop frame in view coordinates
+     */
+    public static int select(int[] boxes, int count, float scaleX, float scaleY, int[] crop) {
+        int cropLeft = crop[FrameGeometry.LEFT];
+        int cropTop = crop[FrameGeometry.TOP];
+        int cropRight = crop[FrameGeometry.RIGHT];
+        int cropBottom = crop[FrameGeometry.BOTTOM];
+        boolean cropEmpty = cropLeft >= cropRight || cropTop >= cropBottom;
+
+        int selected = -1;
+        for (int i = 0; i < count; ++i) {
+            int offset = i * 4;
+            int left = (int) Math.floor(boxes[offset + FrameGeometry.LEFT] * scaleX);
+            int top = (int) Math.floor(boxes[offset + FrameGeometry.TOP] * scaleY);
+            int right = (int) Math.ceil(boxes[offset + FrameGeometry.RIGHT] * scaleX);
+            int bottom = (int) Math.ceil(boxes[offset + FrameGeometry.BOTTOM] * scaleY);
+
+            if (!cropEmpty && left >= cropLeft && top >= cropTop
+                    && right <= cropRight && bottom <= cropBottom) {
+                selected = i;
+            } else if (bottom - top > cropBottom - cropTop
+                    && left > cropLeft && right < cropRight) {
+                selected = i;
+            }
+        }
+        return selected;
+    }
+}
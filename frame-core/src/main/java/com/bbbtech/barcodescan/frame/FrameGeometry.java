@@ -0,0 +1,121 @@
+package com.bbbtech.barcodescan.frame;
+
+/**
+ * Coordinate transforms between the camera sensor and the upright frame seen by the detector.
+ * <p/>
+ * Preview buffers are laid out in sensor orientation.  The frame rotation ({@code 0} to {@code 3},
+ * see {@code Frame.ROTATION_90} and friends of the vision library) rotates the sensor
+ * image clockwise in steps of 90 degrees into the upright image, which is also the coordinate
+ * system of the detection results.  Rectangles are passed as {@code {left, top, right, bottom}}
+ * arrays with exclusive right and bottom edges.
+ */
+public final class FrameGeometry {
+    public static final int LEFT = 0;
+    public static final int TOP = 1;
+    public static final int RIGHT = 2;
+    public static final int BOTTOM = 3;
+
+    private FrameGeometry() {
+    }
+
+    /**
+     * Returns the width of the upright image for a sensor image of the given size.
+     */
+    public static int uprightWidth(int sensorWidth, int sensorHeight, int rotation) {
+        return (rotation % 2 == 0) ? sensorWidth : sensorHeight;
+    }
+
+    /**
+     * Returns the height of the upright image for a sensor image of the given size.
+     */
+    public static int uprightHeight(int sensorWidth, int sensorHeight, int rotation) {
+        return (rotation % 2 == 0) ? sensorHeight : sensorWidth;
+    }
+
+    /**
+     * Maps a rectangle of the upright image into sensor coordinates.
+     */
+    public static void uprightToSensor(int[] upright, int rotation,
+                                       int sensorWidth, int sensorHeight, int[] sensor) {
+        int l = upright[LEFT];
+        int t = upright[TOP];
+        int r = upright[RIGHT];
+        int b = upright[BOTTOM];
+        switch (rotation) {
+            case 1:
+                set(sensor, t, sensorHeight - r, b, sensorHeight - l);
+                break;
+            case 2:
+                set(sensor, sensorWidth - r, sensorHeight - b, sensorWidth - l, sensorHeight - t);
+                break;
+            case 3:
+                set(sensor, sensorWidth - b, l, sensorWidth - t, r);
+                break;
+            default:
+                set(sensor, l, t, r, b);
+                break;
+        }
+    }
+
+    /**
+     * Maps a rectangle of the sensor image into upright coordinates.
+     */
+    public static void sensorToUpright(int[] sensor, int rotation,
+                                       int sensorWidth, int sensorHeight, int[] upright) {
+        int l = sensor[LEFT];
+        int t = sensor[TOP];
+        int r = sensor[RIGHT];
+        int b = sensor[BOTTOM];
+        switch (rotation) {
+            case 1:
+                set(upright, sensorHeight - b, l, sensorHeight - t, r);
+                break;
+            case 2:
+                set(upright, sensorWidth - r, sensorHeight - b, sensorWidth - l, sensorHeight - t);
+                break;
+            case 3:
+                set(upright, t, sensorWidth - r, b, sensorWidth - l);
+                break;
+            default:
+                set(upright, l, t, r, b);
+                break;
+        }
+    }
+
+    /**
+     * Scales a rectangle from a view of {@code viewWidth x viewHeight} showing the whole upright
+     * image onto the upright image, clamping it to the image bounds.
+     */
+    public static void viewToUpright(int[] view, int viewWidth, int viewHeight,
+                                     int uprightWidth, int uprightHeight, int[] upright) {
+        float scaleX = (float) uprightWidth / viewWidth;
+        float scaleY = (float) uprightHeight / viewHeight;
+        set(upright,
+                clamp((int) Math.floor(view[LEFT] * scaleX), 0, uprightWidth),
+                clamp((int) Math.floor(view[TOP] * scaleY), 0, uprightHeight),
+                clamp((int) Math.ceil(view[RIGHT] * scaleX), 0, uprightWidth),
+                clamp((int) Math.ceil(view[BOTTOM] * scaleY), 0, uprightHeight));
+    }
+
+    /**
+     * Grows a rectangle to even coordinates, as required to crop an NV21 image whose chroma is
+     * sampled once per 2x2 block.
+     */
+    public static void alignToChroma(int[] rect, int width, int height) {
+        rect[LEFT] &= ~1;
+        rect[TOP] &= ~1;
+        rect[RIGHT] = Math.min((rect[RIGHT] + 1) & ~1, width & ~1);
+        rect[BOTTOM] = Math.min((rect[BOTTOM] + 1) & ~1, height & ~1);
+    }
+
+    private static void set(int[] rect, int left, int top, int right, int bottom) {
+        rect[LEFT] = left;
+        rect[TOP] = top;
+        rect[RIGHT] = right;
+        rect[BOTTOM] = bottom;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,206 @@
+package com.bbbtech.barcodescan.frame;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decodes barcodes from a luma plane with the pure Java ZXing readers.
+ * <p/>
+ * Only a region of interest of the plane is searched.  An upright plane is read in place; otherwise
+ * only the region is rotated into an upright scratch image, so that one dimensional barcodes are
+ * scanned across their bars and the result coordinates are upright like those of the vision
+ * library.  A plane in a {@link ByteBuffer} without an array, e.g. a direct camera2 plane, always
+ * has only its region copied out, since the readers need an array.  The readers are limited to the configured formats.
+ * <p/>
+ * An instance keeps reader state and a scratch image, so it must only be used by one thread at a
+ * time.
+ */
+public final class LumaBarcodeDecoder {
+
+    /**
+     * A decoded barcode, with its box in upright frame coordinates.
+     */
+    public static final class Result {
+        public final BarcodeFormat format;
+        public final String text;
+        public final int[] box;
+
+        Result(BarcodeFormat format, String text, int[] box) {
+            this.format = format;
+            this.text = text;
+            this.box = box;
+        }
+    }
+
+    private final MultiFormatReader mReader = new MultiFormatReader();
+    private final int[] mUpright = new int[4];
+    private final int[] mSensor = new int[4];
+    private byte[] mScratch;
+
+    /**
+     * @param formats   the formats to look for, all formats ZXing supports if empty
+     * @param tryHarder whether to spend more time looking for a barcode, see
+     *                  {@link DecodeHintType#TRY_HARDER}
+     */
+    public LumaBarcodeDecoder(Collection<BarcodeFormat> formats, boolean tryHarder) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        if (!formats.isEmpty()) {
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<>(formats));
+        }
+        if (tryHarder) {
+            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        }
+        mReader.setHints(hints);
+    }
+
+    /**
+     * Decodes a barcode in the given region of the upright frame.
+     *
+     * @param luma     the luma plane in sensor orientation, e.g. the start of an NV21 buffer
+     * @param width    the width of the luma plane
+     * @param height   the height of the luma plane
+     * @param rotation the rotation from sensor to upright orientation, see {@link FrameGeometry}
+     * @param region   the region to search in upright coordinates, or null for the whole frame
+     * @return the barcode found, or null if there is none
+     */
+    public Result decode(byte[] luma, int width, int height, int rotation, int[] region) {
+        if (!setRegion(width, height, rotation, region)) {
+            return null;
+        }
+        int regionWidth = mUpright[FrameGeometry.RIGHT] - mUpright[FrameGeometry.LEFT];
+        int regionHeight = mUpright[FrameGeometry.BOTTOM] - mUpright[FrameGeometry.TOP];
+        if (rotation == 0) {
+            // Already upright, so the readers look at the plane itself.
+            return decode(new PlanarYUVLuminanceSource(luma, width, height,
+                    mUpright[FrameGeometry.LEFT], mUpright[FrameGeometry.TOP],
+                    regionWidth, regionHeight, false));
+        }
+        byte[] scratch = getScratch(regionWidth * regionHeight);
+        Nv21Utils.rotateLuma(luma, width, mSensor[FrameGeometry.LEFT], mSensor[FrameGeometry.TOP],
+                mSensor[FrameGeometry.RIGHT] - mSensor[FrameGeometry.LEFT],
+                mSensor[FrameGeometry.BOTTOM] - mSensor[FrameGeometry.TOP],
+                rotation, scratch);
+        return decode(new PlanarYUVLuminanceSource(scratch, regionWidth, regionHeight,
+                0, 0, regionWidth, regionHeight, false));
+    }
+
+    /**
+     * Like {@link #decode(byte[], int, int, int, int[])}, for a luma plane held in a buffer.  Only
+     * the region is copied out of the buffer, rotated upright.
+     *
+     * @param luma the luma plane in sensor orientation, starting at index 0 of the buffer, with
+     *             rows of {@code width} bytes
+     */
+    public Result decode(ByteBuffer luma, int width, int height, int rotation, int[] region) {
+        if (luma.capacity() < width * height || !setRegion(width, height, rotation, region)) {
+            return null;
+        }
+        int regionWidth = mUpright[FrameGeometry.RIGHT] - mUpright[FrameGeometry.LEFT];
+        int regionHeight = mUpright[FrameGeometry.BOTTOM] - mUpright[FrameGeometry.TOP];
+        byte[] scratch = getScratch(regionWidth * regionHeight);
+        Nv21Utils.rotateLuma(luma, width, mSensor[FrameGeometry.LEFT], mSensor[FrameGeometry.TOP],
+                mSensor[FrameGeometry.RIGHT] - mSensor[FrameGeometry.LEFT],
+                mSensor[FrameGeometry.BOTTOM] - mSensor[FrameGeometry.TOP],
+                rotation, scratch);
+        return decode(new PlanarYUVLuminanceSource(scratch, regionWidth, regionHeight,
+                0, 0, regionWidth, regionHeight, false));
+    }
+
+    /**
+     * Sets the upright region to search and the matching sensor region, and returns whether it
+     * is not empty.
+     */
+    private boolean setRegion(int width, int height, int rotation, int[] region) {
+        int uprightWidth = FrameGeometry.uprightWidth(width, height, rotation);
+        int uprightHeight = FrameGeometry.uprightHeight(width, height, rotation);
+        if (region != null) {
+            System.arraycopy(region, 0, mUpright, 0, 4);
+            clampToFrame(mUpright, uprightWidth, uprightHeight);
+        } else {
+            mUpright[FrameGeometry.LEFT] = 0;
+            mUpright[FrameGeometry.TOP] = 0;
+            mUpright[FrameGeometry.RIGHT] = uprightWidth;
+            mUpright[FrameGeometry.BOTTOM] = uprightHeight;
+        }
+        if (mUpright[FrameGeometry.RIGHT] <= mUpright[FrameGeometry.LEFT]
+                || mUpright[FrameGeometry.BOTTOM] <= mUpright[FrameGeometry.TOP]) {
+            return false;
+        }
+        FrameGeometry.uprightToSensor(mUpright, rotation, width, height, mSensor);
+        return true;
+    }
+
+    private byte[] getScratch(int size) {
+        if (mScratch == null || mScratch.length < size) {
+            mScratch = new byte[size];
+        }
+        return mScratch;
+    }
+
+    private Result decode(PlanarYUVLuminanceSource source) {
+        com.google.zxing.Result result;
+        try {
+            result = mReader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+        } catch (NotFoundException e) {
+            return null;
+        } finally {
+            mReader.reset();
+        }
+
+        // Result points are relative to the region, in both cases.
+        return new Result(result.getBarcodeFormat(), result.getText(),
+                boundingBox(result.getResultPoints(),
+                        mUpright[FrameGeometry.LEFT], mUpright[FrameGeometry.TOP]));
+    }
+
+    /**
+     * Returns the box around the result points.  One dimensional barcodes only report points on
+     * the scanned line, so their box is one pixel high.
+     */
+    private static int[] boundingBox(ResultPoint[] points, int offsetX, int offsetY) {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        if (points != null) {
+            for (ResultPoint point : points) {
+                if (point == null) {
+                    continue;
+                }
+                left = Math.min(left, point.getX());
+                top = Math.min(top, point.getY());
+                right = Math.max(right, point.getX());
+                bottom = Math.max(bottom, point.getY());
+            }
+        }
+        int[] box = new int[4];
+        if (left > right) {
+            return box;
+        }
+        box[FrameGeometry.LEFT] = offsetX + (int) Math.floor(left);
+        box[FrameGeometry.TOP] = offsetY + (int) Math.floor(top);
+        box[FrameGeometry.RIGHT] = offsetX + (int) Math.ceil(right) + 1;
+        box[FrameGeometry.BOTTOM] = offsetY + (int) Math.ceil(bottom) + 1;
+        return box;
+    }
+
+    private static void clampToFrame(int[] rect, int width, int height) {
+        rect[FrameGeometry.LEFT] = Math.max(0, rect[FrameGeometry.LEFT]);
+        rect[FrameGeometry.TOP] = Math.max(0, rect[FrameGeometry.TOP]);
+        rect[FrameGeometry.RIGHT] = Math.min(width, rect[FrameGeometry.RIGHT]);
+        rect[FrameGeometry.BOTTOM] = Math.min(height, rect[FrameGeometry.BOTTOM]);
+    }
+}
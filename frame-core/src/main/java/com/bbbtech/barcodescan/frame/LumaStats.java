@@ -0,0 +1,89 @@
+package com.bbbtech.barcodescan.frame;
+
+/**
+ * Statistics of the luma plane of a frame, used to decide whether a frame is worth detecting.
+ * <p/>
+ * All measurements take a region of the plane as {@code left, top, right, bottom} with exclusive
+ * right and bottom edges, and sample the region sparsely, so that they cost a few thousand pixel
+ * reads whatever the preview size.
+ */
+public final class LumaStats {
+
+    // Distance between pixels sampled for the sharpness, in both directions.
+    private static final int SHARPNESS_SAMPLE_STEP = 4;
+
+    private LumaStats() {
+    }
+
+    /**
+     * Returns the sharpness of the luma plane inside the given region, as the mean squared
+     * Laplacian on a sparse grid.
+     *
+     * @param luma   the luma plane, e.g. the start of an NV21 buffer
+     * @param width  the width of the luma plane
+     * @param left   the left edge of the region
+     * @param top    the top edge of the region
+     * @param right  the right edge of the region (exclusive)
+     * @param bottom the bottom edge of the region (exclusive)
+     */
+    public static float sharpness(byte[] luma, int width, int left, int top, int right,
+                                  int bottom) {
+        long sum = 0;
+        int count = 0;
+        for (int y = Math.max(top, 1); y < bottom - 1; y += SHARPNESS_SAMPLE_STEP) {
+            int row = y * width;
+            for (int x = Math.max(left, 1); x < right - 1; x += SHARPNESS_SAMPLE_STEP) {
+                int center = row + x;
+                int laplacian = 4 * (luma[center] & 0xff)
+                        - (luma[center - 1] & 0xff) - (luma[center + 1] & 0xff)
+                        - (luma[center - width] & 0xff) - (luma[center + width] & 0xff);
+                sum += laplacian * laplacian;
+                count++;
+            }
+        }
+        return (count > 0) ? (float) sum / count : 0f;
+    }
+
+    /**
+     * Reduces the given region of the luma plane to a thumbnail of
+     * {@code thumbnailWidth x thumbnailHeight} cells, averaging
+     * {@code cellSamples x cellSamples} pixels per cell.
+     *
+     * @param thumbnail destination of {@code thumbnailWidth * thumbnailHeight} bytes
+     */
+    public static void thumbnail(byte[] luma, int width, int left, int top, int right, int bottom,
+                                 int thumbnailWidth, int thumbnailHeight, int cellSamples,
+                                 byte[] thumbnail) {
+        int regionWidth = right - left;
+        int regionHeight = bottom - top;
+        int samplesX = thumbnailWidth * cellSamples;
+        int samplesY = thumbnailHeight * cellSamples;
+        int index = 0;
+        for (int cellY = 0; cellY < thumbnailHeight; ++cellY) {
+            for (int cellX = 0; cellX < thumbnailWidth; ++cellX) {
+                int sum = 0;
+                for (int sy = 0; sy < cellSamples; ++sy) {
+                    int y = top + ((cellY * cellSamples + sy) * regionHeight) / samplesY;
+                    int row = y * width;
+                    for (int sx = 0; sx < cellSamples; ++sx) {
+                        int x = left + ((cellX * cellSamples + sx) * regionWidth) / samplesX;
+                        sum += luma[row + x] & 0xff;
+                    }
+                }
+                thumbnail[index++] = (byte) (sum / (cellSamples * cellSamples));
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the absolute differences between the first {@code length} gray levels of
+     * two images, e.g. two thumbnails.
+     */
+    public static int sumOfAbsoluteDifferences(byte[] a, byte[] b, int length) {
+        int difference = 0;
+        for (int i = 0; i < length; ++i) {
+            difference += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return difference;
+    }
+}
@@ -0,0 +1,228 @@
+package com.bbbtech.barcodescan.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel operations on NV21 preview buffers.
+ * <p/>
+ * An NV21 buffer of {@code width x height} holds the full resolution Y plane followed by an
+ * interleaved VU plane with {@code height / 2} rows of {@code width} bytes each.  All operations
+ * here work directly on the camera buffers (or on caller supplied scratch buffers) so that they
+ * never allocate on the frame processing path.
+ */
+public final class Nv21Utils {
+
+    private Nv21Utils() {
+    }
+
+    /**
+     * Mirrors the supplied NV21 image upside down in place, which is the same result as the
+     * {@code postScale(1, -1)} bitmap flip.  Both the Y plane and the interleaved VU plane are
+     * flipped row by row.
+     *
+     * @param data      the NV21 image data
+     * @param width     the width of the image in pixels
+     * @param height    the height of the image in pixels
+     * @param rowBuffer scratch buffer of at least {@code width} bytes
+     */
+    public static void mirrorVertically(byte[] data, int width, int height, byte[] rowBuffer) {
+        if (rowBuffer.length < width) {
+            throw new IllegalArgumentException("Row buffer is smaller than the image width.");
+        }
+
+        // Y plane
+        swapRows(data, 0, width, height, rowBuffer);
+
+        // Interleaved VU plane, one chroma row per two luma rows
+        swapRows(data, width * height, width, height / 2, rowBuffer);
+    }
+
+    /**
+     * Copies a region of an NV21 image into a smaller NV21 image.  The region must start at even
+     * coordinates and have an even size, so that it lines up with the 2x2 chroma blocks.
+     *
+     * @param src       the NV21 source image
+     * @param srcWidth  the width of the source image in pixels
+     * @param srcHeight the height of the source image in pixels
+     * @param left      the left edge of the region
+     * @param top       the top edge of the region
+     * @param width     the width of the region
+     * @param height    the height of the region
+     * @param dst       destination of at least {@code width * height * 3 / 2} bytes
+     */
+    public static void crop(byte[] src, int srcWidth, int srcHeight,
+                            int left, int top, int width, int height, byte[] dst) {
+        // Y plane
+        int srcOffset = top * srcWidth + left;
+        int dstOffset = 0;
+        for (int row = 0; row < height; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width);
+            srcOffset += srcWidth;
+            dstOffset += width;
+        }
+
+        // Interleaved VU plane.  Both the source and the destination rows hold one VU pair per
+        // two pixels, so the byte offset in a row equals the pixel offset.
+        srcOffset = srcWidth * srcHeight + (top / 2) * srcWidth + left;
+        for (int row = 0; row < height / 2; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width);
+            srcOffset += srcWidth;
+            dstOffset += width;
+        }
+    }
+
+    /**
+     * Returns the size along one axis of the image produced by {@link #downscale2x}, rounded down
+     * to an even number of pixels.
+     */
+    public static int downscaledSize(int size) {
+        return (size / 2) & ~1;
+    }
+
+    /**
+     * Halves the size of an NV21 image with a 2x2 box filter.  Luma is averaged over each 2x2
+     * block, and each chroma pair over the 2x2 block of chroma pairs it replaces.  The output is
+     * {@link #downscaledSize(int)} of the source in both directions.
+     *
+     * @param src       the NV21 source image
+     * @param srcWidth  the width of the source image in pixels
+     * @param srcHeight the height of the source image in pixels
+     * @param dst       destination large enough for the downscaled NV21 image
+     */
+    public static void downscale2x(byte[] src, int srcWidth, int srcHeight, byte[] dst) {
+        int width = downscaledSize(srcWidth);
+        int height = downscaledSize(srcHeight);
+
+        // Y plane
+        int dstOffset = 0;
+        for (int y = 0; y < height; ++y) {
+            int row0 = (2 * y) * srcWidth;
+            int row1 = row0 + srcWidth;
+            for (int x = 0; x < width; ++x) {
+                int sx = 2 * x;
+                int sum = (src[row0 + sx] & 0xff) + (src[row0 + sx + 1] & 0xff)
+                        + (src[row1 + sx] & 0xff) + (src[row1 + sx + 1] & 0xff);
+                dst[dstOffset++] = (byte) ((sum + 2) >> 2);
+            }
+        }
+
+        // Interleaved VU plane, averaging V and U separately
+        int srcChroma = srcWidth * srcHeight;
+        for (int y = 0; y < height / 2; ++y) {
+            int row0 = srcChroma + (2 * y) * srcWidth;
+            int row1 = row0 + srcWidth;
+            for (int x = 0; x < width; x += 2) {
+                int sx = 2 * x;
+                int v = (src[row0 + sx] & 0xff) + (src[row0 + sx + 2] & 0xff)
+                        + (src[row1 + sx] & 0xff) + (src[row1 + sx + 2] & 0xff);
+                int u = (src[row0 + sx + 1] & 0xff) + (src[row0 + sx + 3] & 0xff)
+                        + (src[row1 + sx + 1] & 0xff) + (src[row1 + sx + 3] & 0xff);
+                dst[dstOffset++] = (byte) ((v + 2) >> 2);
+                dst[dstOffset++] = (byte) ((u + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * Copies a region of the luma plane into an upright grayscale image, rotating it clockwise by
+     * {@code rotation} quarter turns (see {@link FrameGeometry}).  The upright image is
+     * {@code height x width} for an odd rotation, and {@code width x height} otherwise.
+     *
+     * @param luma      the luma plane, e.g. the start of an NV21 buffer
+     * @param lumaWidth the width of the luma plane
+     * @param left      the left edge of the region in sensor coordinates
+     * @param top       the top edge of the region in sensor coordinates
+     * @param width     the width of the region in sensor coordinates
+     * @param height    the height of the region in sensor coordinates
+     * @param dst       destination of at least {@code width * height} bytes
+     */
+    public static void rotateLuma(byte[] luma, int lumaWidth, int left, int top,
+                                  int width, int height, int rotation, byte[] dst) {
+        for (int y = 0; y < height; ++y) {
+            int src = (top + y) * lumaWidth + left;
+            switch (rotation) {
+                case 1:
+                    // Sensor row y becomes upright column height - 1 - y.
+                    for (int x = 0, d = height - 1 - y; x < width; ++x, d += height) {
+                        dst[d] = luma[src + x];
+                    }
+                    break;
+                case 2:
+                    for (int x = 0, d = (height - y) * width - 1; x < width; ++x, --d) {
+                        dst[d] = luma[src + x];
+                    }
+                    break;
+                case 3:
+                    // Sensor row y becomes upright column y, from the bottom up.
+                    for (int x = 0, d = (width - 1) * height + y; x < width; ++x, d -= height) {
+                        dst[d] = luma[src + x];
+                    }
+                    break;
+                default:
+                    System.arraycopy(luma, src, dst, y * width, width);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #rotateLuma(byte[], int, int, int, int, int, int, byte[])}, reading the region
+     * from a buffer, e.g. the direct luma plane of a camera2 image, without copying the rest of
+     * the plane.  Only absolute reads are used, so the position of the buffer is left alone.
+     *
+     * @param luma      the luma plane, starting at index 0 of the buffer
+     * @param lumaWidth the row stride of the luma plane
+     */
+    public static void rotateLuma(ByteBuffer luma, int lumaWidth, int left, int top,
+                                  int width, int height, int rotation, byte[] dst) {
+        if (rotation == 0) {
+            ByteBuffer rows = luma.duplicate();
+            for (int y = 0; y < height; ++y) {
+                rows.clear();
+                rows.position((top + y) * lumaWidth + left);
+                rows.get(dst, y * width, width);
+            }
+            return;
+        }
+        for (int y = 0; y < height; ++y) {
+            int src = (top + y) * lumaWidth + left;
+            switch (rotation) {
+                case 1:
+                    for (int x = 0, d = height - 1 - y; x < width; ++x, d += height) {
+                        dst[d] = luma.get(src + x);
+                    }
+                    break;
+                case 2:
+                    for (int x = 0, d = (height - y) * width - 1; x < width; ++x, --d) {
+                        dst[d] = luma.get(src + x);
+                    }
+                    break;
+                default:
+                    for (int x = 0, d = (width - 1) * height + y; x < width; ++x, d -= height) {
+                        dst[d] = luma.get(src + x);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of an NV21 image of the given size.
+     */
+    public static int getBufferSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    private static void swapRows(byte[] data, int offset, int rowLength, int rowCount,
+                                 byte[] rowBuffer) {
+        int top = offset;
+        int bottom = offset + (rowCount - 1) * rowLength;
+        while (top < bottom) {
+            System.arraycopy(data, top, rowBuffer, 0, rowLength);
+            System.arraycopy(data, bottom, data, top, rowLength);
+            System.arraycopy(rowBuffer, 0, data, bottom, rowLength);
+            top += rowLength;
+            bottom -= rowLength;
+        }
+    }
+}
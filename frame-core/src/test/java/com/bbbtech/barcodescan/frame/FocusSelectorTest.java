@@ -0,0 +1,115 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FocusSelectorTest {
+
+    private static final int[] CROP = {100, 300, 620, 700};
+
+    @Test
+    public void selectsBoxInsideCrop() {
+        int[] boxes = {
+                0, 0, 50, 50,
+                60, 160, 200, 300,
+        };
+        assertEquals(1, FocusSelector.select(boxes, 2, 2f, 2f, CROP));
+    }
+
+    @Test
+    public void selectsLastMatchingBox() {
+        int[] boxes = {
+                60, 160, 200, 300,
+                70, 170, 210, 310,
+                0, 0, 10, 10,
+        };
+        assertEquals(1, FocusSelector.select(boxes, 3, 2f, 2f, CROP));
+    }
+
+    @Test
+    public void selectsTallBoxBetweenCropEdges() {
+        // Two equal barcodes on top of each other, detected as a single box.
+        int[] boxes = {60, 100, 200, 400};
+        assertEquals(0, FocusSelector.select(boxes, 1, 2f, 2f, CROP));
+    }
+
+    @Test
+    public void roundsScaledBoxOutwards() {
+        // 50 * 2.01 = 100.5 is floored to 100 and stays inside; 310 * 2.01 = 623.1 is ceiled.
+        int[] inside = {50, 150, 300, 300};
+        int[] outside = {50, 150, 309, 300};
+        assertEquals(0, FocusSelector.select(inside, 1, 2.01f, 2f, CROP));
+        assertEquals(-1, FocusSelector.select(outside, 1, 2.01f, 2f, CROP));
+    }
+
+    @Test
+    public void selectsNothingOutsideCrop() {
+        int[] boxes = {0, 0, 40, 40};
+        assertEquals(-1, FocusSelector.select(boxes, 1, 2f, 2f, CROP));
+        assertEquals(-1, FocusSelector.select(boxes, 0, 2f, 2f, CROP));
+    }
+
+    /**
+     * Compares with the selection done before, using {@code RectF.roundOut} and
+     * {@code Rect.contains} of the Android framework.
+     */
+    @Test
+    public void matchesRectSelection() {
+        Random random = new Random(17);
+        for (int round = 0; round < 10000; ++round) {
+            int count = 1 + random.nextInt(4);
+            int[] boxes = new int[count * 4];
+            for (int i = 0; i < count; ++i) {
+                int left = random.nextInt(500) - 50;
+                int top = random.nextInt(500) - 50;
+                boxes[i * 4] = left;
+                boxes[i * 4 + 1] = top;
+                boxes[i * 4 + 2] = left + random.nextInt(300);
+                boxes[i * 4 + 3] = top + random.nextInt(600);
+            }
+            float scaleX = 0.5f + random.nextFloat() * 2f;
+            float scaleY = 0.5f + random.nextFloat() * 2f;
+            int cropLeft = random.nextInt(300);
+            int cropTop = random.nextInt(300);
+            int[] crop = {cropLeft, cropTop,
+                    cropLeft + random.nextInt(500), cropTop + random.nextInt(500)};
+
+            assertEquals("round " + round, selectWithRects(boxes, count, scaleX, scaleY, crop),
+                    FocusSelector.select(boxes, count, scaleX, scaleY, crop));
+        }
+    }
+
+    private static int selectWithRects(int[] boxes, int count, float scaleX, float scaleY,
+                                       int[] crop) {
+        int selected = -1;
+        for (int i = 0; i < count; ++i) {
+            // RectF(rect) scaled per edge, then roundOut().
+            float leftF = (float) boxes[i * 4] * scaleX;
+            float topF = (float) boxes[i * 4 + 1] * scaleY;
+            float rightF = (float) boxes[i * 4 + 2] * scaleX;
+            float bottomF = (float) boxes[i * 4 + 3] * scaleY;
+            int left = (int) Math.floor(leftF);
+            int top = (int) Math.floor(topF);
+            int right = (int) Math.ceil(rightF);
+            int bottom = (int) Math.ceil(bottomF);
+
+            if (contains(crop, left, top, right, bottom)) {
+                selected = i;
+            } else if (bottom - top > crop[3] - crop[1] && left > crop[0] && right < crop[2]) {
+                selected = i;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * {@code Rect.contains(Rect)}: an empty rectangle contains nothing.
+     */
+    private static boolean contains(int[] rect, int left, int top, int right, int bottom) {
+        return rect[0] < rect[2] && rect[1] < rect[3]
+                && rect[0] <= left && rect[1] <= top && rect[2] >= right && rect[3] >= bottom;
+    }
+}
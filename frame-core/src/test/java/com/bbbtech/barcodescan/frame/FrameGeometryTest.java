@@ -0,0 +1,88 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameGeometryTest {
+
+    private static final int SENSOR_WIDTH = 640;
+    private static final int SENSOR_HEIGHT = 480;
+
+    @Test
+    public void swapsDimensionsForOddRotations() {
+        assertEquals(640, FrameGeometry.uprightWidth(640, 480, 0));
+        assertEquals(480, FrameGeometry.uprightHeight(640, 480, 0));
+        assertEquals(480, FrameGeometry.uprightWidth(640, 480, 1));
+        assertEquals(640, FrameGeometry.uprightHeight(640, 480, 1));
+        assertEquals(640, FrameGeometry.uprightWidth(640, 480, 2));
+        assertEquals(640, FrameGeometry.uprightHeight(640, 480, 3));
+    }
+
+    @Test
+    public void mapsRectanglesBothWays() {
+        int[] sensor = {10, 20, 110, 70};
+        int[] upright = new int[4];
+        int[] back = new int[4];
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            FrameGeometry.sensorToUpright(sensor, rotation, SENSOR_WIDTH, SENSOR_HEIGHT, upright);
+            FrameGeometry.uprightToSensor(upright, rotation, SENSOR_WIDTH, SENSOR_HEIGHT, back);
+            assertArrayEquals("rotation " + rotation, sensor, back);
+        }
+    }
+
+    @Test
+    public void mapsRectanglesLikeRotatedPixels() {
+        int[] upright = {30, 40, 90, 200};
+        int[] sensor = new int[4];
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            FrameGeometry.uprightToSensor(upright, rotation, SENSOR_WIDTH, SENSOR_HEIGHT, sensor);
+
+            // The sensor rectangle is the bounding box of the sensor pixels of the corners.
+            int left = Integer.MAX_VALUE;
+            int top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE;
+            int bottom = Integer.MIN_VALUE;
+            int[][] corners = {
+                    {upright[FrameGeometry.LEFT], upright[FrameGeometry.TOP]},
+                    {upright[FrameGeometry.RIGHT] - 1, upright[FrameGeometry.TOP]},
+                    {upright[FrameGeometry.LEFT], upright[FrameGeometry.BOTTOM] - 1},
+                    {upright[FrameGeometry.RIGHT] - 1, upright[FrameGeometry.BOTTOM] - 1},
+            };
+            for (int[] corner : corners) {
+                int[] pixel = Nv21UtilsTest.uprightToSensorPixel(corner[0], corner[1], rotation,
+                        SENSOR_WIDTH, SENSOR_HEIGHT);
+                left = Math.min(left, pixel[0]);
+                top = Math.min(top, pixel[1]);
+                right = Math.max(right, pixel[0] + 1);
+                bottom = Math.max(bottom, pixel[1] + 1);
+            }
+            assertArrayEquals("rotation " + rotation + " " + Arrays.toString(sensor),
+                    new int[]{left, top, right, bottom}, sensor);
+        }
+    }
+
+    @Test
+    public void scalesViewRectangleAndClamps() {
+        int[] upright = new int[4];
+        FrameGeometry.viewToUpright(new int[]{100, 50, 300, 250}, 400, 500, 480, 640, upright);
+        assertArrayEquals(new int[]{120, 64, 360, 320}, upright);
+
+        FrameGeometry.viewToUpright(new int[]{-10, -10, 500, 600}, 400, 500, 480, 640, upright);
+        assertArrayEquals(new int[]{0, 0, 480, 640}, upright);
+    }
+
+    @Test
+    public void growsRectangleToEvenCoordinates() {
+        int[] rect = {3, 5, 8, 10};
+        FrameGeometry.alignToChroma(rect, 640, 480);
+        assertArrayEquals(new int[]{2, 4, 8, 10}, rect);
+
+        rect = new int[]{1, 1, 639, 479};
+        FrameGeometry.alignToChroma(rect, 639, 479);
+        assertArrayEquals(new int[]{0, 0, 638, 478}, rect);
+    }
+}
@@ -0,0 +1,157 @@
+package com.bbbtech.barcodescan.frame;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LumaBarcodeDecoderTest {
+
+    private static final int SENSOR_WIDTH = 640;
+    private static final int SENSOR_HEIGHT = 480;
+
+    // Where the barcode is drawn in the upright image.  One dimensional readers only scan rows
+    // around the middle of the image unless told to try harder.
+    private static final int BARCODE_LEFT = 100;
+    private static final int BARCODE_TOP = 200;
+
+    @Test
+    public void decodesQrCodeInEveryRotation() throws WriterException {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            assertRoundTrip(BarcodeFormat.QR_CODE, "https://bbbtech.com/" + rotation, 165, 165,
+                    rotation);
+        }
+    }
+
+    @Test
+    public void decodesCode128AcrossItsBarsInEveryRotation() throws WriterException {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            assertRoundTrip(BarcodeFormat.CODE_128, "8801234" + rotation, 300, 100, rotation);
+        }
+    }
+
+    @Test
+    public void searchesOnlyTheRegion() throws WriterException {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            byte[] luma = render(BarcodeFormat.QR_CODE, "region", 200, 200, rotation);
+            LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(
+                    EnumSet.of(BarcodeFormat.QR_CODE), false);
+
+            int[] inside = {BARCODE_LEFT - 20, BARCODE_TOP - 20,
+                    BARCODE_LEFT + 220, BARCODE_TOP + 220};
+            LumaBarcodeDecoder.Result result =
+                    decoder.decode(luma, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, inside);
+            assertNotNull("rotation " + rotation, result);
+            assertEquals("region", result.text);
+
+            int[] outside = {BARCODE_LEFT + 240, 0, BARCODE_LEFT + 400, 200};
+            assertNull("rotation " + rotation,
+                    decoder.decode(luma, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, outside));
+        }
+    }
+
+    @Test
+    public void decodesDirectBufferInEveryRotation() throws WriterException {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            byte[] luma = render(BarcodeFormat.QR_CODE, "direct", 165, 165, rotation);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(luma.length);
+            buffer.put(luma);
+            buffer.flip();
+            LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(
+                    EnumSet.of(BarcodeFormat.QR_CODE), false);
+
+            LumaBarcodeDecoder.Result fromArray =
+                    decoder.decode(luma, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, null);
+            LumaBarcodeDecoder.Result fromBuffer =
+                    decoder.decode(buffer, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, null);
+            assertNotNull("rotation " + rotation, fromBuffer);
+            assertEquals("direct", fromBuffer.text);
+            assertTrue("rotation " + rotation, Arrays.equals(fromArray.box, fromBuffer.box));
+
+            int[] inside = {BARCODE_LEFT - 20, BARCODE_TOP - 20,
+                    BARCODE_LEFT + 185, BARCODE_TOP + 185};
+            assertNotNull("rotation " + rotation,
+                    decoder.decode(buffer, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, inside));
+            assertEquals("rotation " + rotation, 0, buffer.position());
+        }
+    }
+
+    @Test
+    public void looksForConfiguredFormatsOnly() throws WriterException {
+        byte[] luma = render(BarcodeFormat.QR_CODE, "qr", 200, 200, 0);
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(
+                Collections.singleton(BarcodeFormat.CODE_128), false);
+        assertNull(decoder.decode(luma, SENSOR_WIDTH, SENSOR_HEIGHT, 0, null));
+    }
+
+    private static void assertRoundTrip(BarcodeFormat format, String text, int width, int height,
+                                        int rotation) throws WriterException {
+        byte[] luma = render(format, text, width, height, rotation);
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(EnumSet.of(format), false);
+        LumaBarcodeDecoder.Result result =
+                decoder.decode(luma, SENSOR_WIDTH, SENSOR_HEIGHT, rotation, null);
+
+        String message = format + " rotation " + rotation;
+        assertNotNull(message, result);
+        assertEquals(message, format, result.format);
+        assertEquals(message, text, result.text);
+
+        // The box is upright and within the drawn barcode.
+        int[] box = result.box;
+        assertTrue(message + " " + Arrays.toString(box),
+                box[FrameGeometry.LEFT] >= BARCODE_LEFT
+                        && box[FrameGeometry.TOP] >= BARCODE_TOP
+                        && box[FrameGeometry.RIGHT] <= BARCODE_LEFT + width
+                        && box[FrameGeometry.BOTTOM] <= BARCODE_TOP + height
+                        && box[FrameGeometry.LEFT] < box[FrameGeometry.RIGHT]
+                        && box[FrameGeometry.TOP] < box[FrameGeometry.BOTTOM]);
+    }
+
+    /**
+     * Draws an upright barcode on a white upright image, and returns the luma plane of the sensor
+     * image that the given rotation turns into it.
+     */
+    private static byte[] render(BarcodeFormat format, String text, int width, int height,
+                                 int rotation) throws WriterException {
+        BitMatrix matrix = new MultiFormatWriter().encode(text, format, width, height);
+        int uprightWidth = FrameGeometry.uprightWidth(SENSOR_WIDTH, SENSOR_HEIGHT, rotation);
+        int uprightHeight = FrameGeometry.uprightHeight(SENSOR_WIDTH, SENSOR_HEIGHT, rotation);
+
+        byte[] luma = new byte[SENSOR_WIDTH * SENSOR_HEIGHT];
+        for (int y = 0; y < uprightHeight; ++y) {
+            for (int x = 0; x < uprightWidth; ++x) {
+                int mx = x - BARCODE_LEFT;
+                int my = y - BARCODE_TOP;
+                boolean black = mx >= 0 && my >= 0 && mx < matrix.getWidth()
+                        && my < matrix.getHeight() && matrix.get(mx, my);
+                luma[sensorIndex(x, y, rotation)] = black ? (byte) 16 : (byte) 235;
+            }
+        }
+        return luma;
+    }
+
+    private static int sensorIndex(int x, int y, int rotation) {
+        switch (rotation) {
+            case 1:
+                return (SENSOR_HEIGHT - 1 - x) * SENSOR_WIDTH + y;
+            case 2:
+                return (SENSOR_HEIGHT - 1 - y) * SENSOR_WIDTH + (SENSOR_WIDTH - 1 - x);
+            case 3:
+                return x * SENSOR_WIDTH + (SENSOR_WIDTH - 1 - y);
+            default:
+                return y * SENSOR_WIDTH + x;
+        }
+    }
+}
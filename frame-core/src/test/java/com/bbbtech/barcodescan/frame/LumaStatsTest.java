@@ -0,0 +1,108 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LumaStatsTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void flatImageHasNoSharpness() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) 200);
+        assertEquals(0f, LumaStats.sharpness(luma, WIDTH, 0, 0, WIDTH, HEIGHT), 0f);
+    }
+
+    @Test
+    public void measuresMeanSquaredLaplacian() {
+        // Every sampled pixel differs from its four neighbours by 255.
+        byte[] luma = checkerboard(0, 0, WIDTH, HEIGHT);
+        assertEquals(1020f * 1020f, LumaStats.sharpness(luma, WIDTH, 0, 0, WIDTH, HEIGHT), 0f);
+    }
+
+    @Test
+    public void measuresOnlyTheRegion() {
+        byte[] luma = checkerboard(32, 0, WIDTH, HEIGHT);
+        assertEquals(0f, LumaStats.sharpness(luma, WIDTH, 0, 0, 30, HEIGHT), 0f);
+        assertEquals(1020f * 1020f, LumaStats.sharpness(luma, WIDTH, 34, 0, WIDTH, HEIGHT), 0f);
+        assertTrue(LumaStats.sharpness(luma, WIDTH, 0, 0, WIDTH, HEIGHT) > 0f);
+    }
+
+    @Test
+    public void sharpEdgesMeasureHigherThanBlurredOnes() {
+        byte[] sharp = new byte[WIDTH * HEIGHT];
+        byte[] blurred = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                // Vertical bars four pixels wide, and the same bars as a ramp.
+                int phase = x % 8;
+                sharp[y * WIDTH + x] = (byte) (phase < 4 ? 0 : 255);
+                blurred[y * WIDTH + x] = (byte) (phase < 4 ? phase * 64 : (7 - phase) * 64);
+            }
+        }
+        // Sample the bar edges rather than the bar middles.
+        assertTrue(LumaStats.sharpness(sharp, WIDTH, 3, 0, WIDTH, HEIGHT)
+                > LumaStats.sharpness(blurred, WIDTH, 3, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void averagesCellsOfTheRegion() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                luma[y * WIDTH + x] = (byte) (x < 32 ? (y < 24 ? 10 : 20) : (y < 24 ? 30 : 240));
+            }
+        }
+        byte[] thumbnail = new byte[4];
+        LumaStats.thumbnail(luma, WIDTH, 0, 0, WIDTH, HEIGHT, 2, 2, 4, thumbnail);
+        assertArrayEquals(new byte[]{10, 30, 20, (byte) 240}, thumbnail);
+
+        // A region within the right half only sees its two quadrants.
+        LumaStats.thumbnail(luma, WIDTH, 32, 0, WIDTH, HEIGHT, 1, 2, 3, thumbnail);
+        assertEquals(30, thumbnail[0] & 0xff);
+        assertEquals(240, thumbnail[1] & 0xff);
+    }
+
+    @Test
+    public void averagesSamplesOfACell() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                luma[y * WIDTH + x] = (byte) (x % 2 == 0 ? 100 : 200);
+            }
+        }
+        byte[] thumbnail = new byte[1];
+        LumaStats.thumbnail(luma, WIDTH, 0, 0, 4, 4, 1, 1, 4, thumbnail);
+        assertEquals(150, thumbnail[0] & 0xff);
+    }
+
+    @Test
+    public void sumsAbsoluteDifferencesOfGrayLevels() {
+        byte[] a = {0, (byte) 255, 100, (byte) 200, 7};
+        byte[] b = {10, 0, 100, (byte) 250, 99};
+        assertEquals(10 + 255 + 0 + 50, LumaStats.sumOfAbsoluteDifferences(a, b, 4));
+        assertEquals(0, LumaStats.sumOfAbsoluteDifferences(a, a, a.length));
+    }
+
+    /**
+     * Returns a flat gray image with a one pixel checkerboard of black and white from the given
+     * corner to the given one.
+     */
+    private static byte[] checkerboard(int left, int top, int right, int bottom) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) 128);
+        for (int y = top; y < bottom; ++y) {
+            for (int x = left; x < right; ++x) {
+                luma[y * WIDTH + x] = (byte) (((x + y) & 1) == 0 ? 0 : 255);
+            }
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,180 @@
+package com.bbbtech.barcodescan.frame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Nv21UtilsTest {
+
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 16;
+
+    @Test
+    public void bufferSizeRoundsChromaUp() {
+        assertEquals(640 * 480 * 3 / 2, Nv21Utils.getBufferSize(640, 480));
+        assertEquals(5 * 3 + 2 * 3 * 2, Nv21Utils.getBufferSize(5, 3));
+    }
+
+    @Test
+    public void mirrorsLumaAndChromaRows() {
+        byte[] image = randomImage(WIDTH, HEIGHT, 1);
+        byte[] mirrored = image.clone();
+        Nv21Utils.mirrorVertically(mirrored, WIDTH, HEIGHT, new byte[WIDTH]);
+
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                assertEquals(luma(image, WIDTH, x, HEIGHT - 1 - y), luma(mirrored, WIDTH, x, y));
+            }
+        }
+        int chroma = WIDTH * HEIGHT;
+        for (int y = 0; y < HEIGHT / 2; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                assertEquals(image[chroma + (HEIGHT / 2 - 1 - y) * WIDTH + x],
+                        mirrored[chroma + y * WIDTH + x]);
+            }
+        }
+
+        Nv21Utils.mirrorVertically(mirrored, WIDTH, HEIGHT, new byte[WIDTH]);
+        assertArrayEquals(image, mirrored);
+    }
+
+    @Test
+    public void cropsLumaAndMatchingChroma() {
+        byte[] image = randomImage(WIDTH, HEIGHT, 2);
+        int left = 6;
+        int top = 4;
+        int width = 10;
+        int height = 8;
+        byte[] crop = new byte[Nv21Utils.getBufferSize(width, height)];
+        Nv21Utils.crop(image, WIDTH, HEIGHT, left, top, width, height, crop);
+
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                assertEquals(luma(image, WIDTH, left + x, top + y), luma(crop, width, x, y));
+            }
+        }
+        for (int y = 0; y < height / 2; ++y) {
+            for (int x = 0; x < width; ++x) {
+                assertEquals(image[WIDTH * HEIGHT + (top / 2 + y) * WIDTH + left + x],
+                        crop[width * height + y * width + x]);
+            }
+        }
+    }
+
+    @Test
+    public void downscalesWithBoxFilter() {
+        // Odd multiples of two leave a column and a row out.
+        int srcWidth = 22;
+        int srcHeight = 14;
+        byte[] image = randomImage(srcWidth, srcHeight, 3);
+        int width = Nv21Utils.downscaledSize(srcWidth);
+        int height = Nv21Utils.downscaledSize(srcHeight);
+        assertEquals(10, width);
+        assertEquals(6, height);
+
+        byte[] small = new byte[Nv21Utils.getBufferSize(width, height)];
+        Nv21Utils.downscale2x(image, srcWidth, srcHeight, small);
+
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int sum = luma(image, srcWidth, 2 * x, 2 * y)
+                        + luma(image, srcWidth, 2 * x + 1, 2 * y)
+                        + luma(image, srcWidth, 2 * x, 2 * y + 1)
+                        + luma(image, srcWidth, 2 * x + 1, 2 * y + 1);
+                assertEquals((sum + 2) / 4, luma(small, width, x, y));
+            }
+        }
+
+        int srcChroma = srcWidth * srcHeight;
+        int chroma = width * height;
+        for (int y = 0; y < height / 2; ++y) {
+            for (int pair = 0; pair < width / 2; ++pair) {
+                for (int component = 0; component < 2; ++component) {
+                    int sum = 0;
+                    for (int dy = 0; dy < 2; ++dy) {
+                        for (int dx = 0; dx < 2; ++dx) {
+                            sum += image[srcChroma + (2 * y + dy) * srcWidth
+                                    + (2 * pair + dx) * 2 + component] & 0xff;
+                        }
+                    }
+                    assertEquals((sum + 2) / 4,
+                            small[chroma + y * width + 2 * pair + component] & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotatesLumaRegionClockwise() {
+        byte[] image = randomImage(WIDTH, HEIGHT, 4);
+        int left = 3;
+        int top = 2;
+        int width = 11;
+        int height = 7;
+
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            int uprightWidth = FrameGeometry.uprightWidth(width, height, rotation);
+            int uprightHeight = FrameGeometry.uprightHeight(width, height, rotation);
+            byte[] upright = new byte[width * height];
+            Nv21Utils.rotateLuma(image, WIDTH, left, top, width, height, rotation, upright);
+
+            for (int y = 0; y < uprightHeight; ++y) {
+                for (int x = 0; x < uprightWidth; ++x) {
+                    int[] sensor = uprightToSensorPixel(x, y, rotation, width, height);
+                    assertEquals("rotation " + rotation,
+                            luma(image, WIDTH, left + sensor[0], top + sensor[1]),
+                            luma(upright, uprightWidth, x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotatesLumaRegionFromBufferLikeArray() {
+        byte[] image = randomImage(WIDTH, HEIGHT, 5);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(image.length);
+        buffer.put(image);
+        buffer.position(7);
+
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            byte[] expected = new byte[9 * 5];
+            byte[] actual = new byte[9 * 5];
+            Nv21Utils.rotateLuma(image, WIDTH, 4, 6, 9, 5, rotation, expected);
+            Nv21Utils.rotateLuma(buffer, WIDTH, 4, 6, 9, 5, rotation, actual);
+            assertArrayEquals("rotation " + rotation, expected, actual);
+            assertEquals(7, buffer.position());
+        }
+    }
+
+    /**
+     * Returns the sensor pixel shown at the given upright pixel, rotating the sensor image
+     * clockwise by the given quarter turns.
+     */
+    static int[] uprightToSensorPixel(int x, int y, int rotation, int sensorWidth,
+                                      int sensorHeight) {
+        switch (rotation) {
+            case 1:
+                return new int[]{y, sensorHeight - 1 - x};
+            case 2:
+                return new int[]{sensorWidth - 1 - x, sensorHeight - 1 - y};
+            case 3:
+                return new int[]{sensorWidth - 1 - y, x};
+            default:
+                return new int[]{x, y};
+        }
+    }
+
+    static byte[] randomImage(int width, int height, long seed) {
+        byte[] image = new byte[Nv21Utils.getBufferSize(width, height)];
+        new Random(seed).nextBytes(image);
+        return image;
+    }
+
+    private static int luma(byte[] image, int width, int x, int y) {
+        return image[y * width + x] & 0xff;
+    }
+}